@@ -0,0 +1,35 @@
+#!/bin/bash
+# Confronto tra pool_mode = platform e pool_mode = virtual: latenza e throughput
+#
+# Per ogni numero di connessioni avvia il server in una cartella temporanea
+# con una copia di config e data, esegue LoadBench e lo arresta.
+# Richiede "make all bench"; la modalità virtual richiede Java 21 (JAVA=...).
+#
+# Uso: bench/load.sh [connessioni ...]     (default: 1000 10000 50000)
+# Client e server condividono la macchina: con pochi core il client pesa
+# sulle misure e il numero di connessioni è limitato da "ulimit -n".
+# Variabili: JAVA, THINK (ms, default 1000), DURATION (s, default 20),
+#            SERVER_CP, BENCH_CP
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAVA=${JAVA:-java}
+THINK=${THINK:-1000}
+DURATION=${DURATION:-20}
+SERVER_CP=${SERVER_CP:-$ROOT/bin:$ROOT/lib/gson.jar}
+BENCH_CP=${BENCH_CP:-$ROOT/bin-bench:$SERVER_CP}
+PORT=$(sed -n 's/^port *= *\([0-9]*\).*/\1/p' "$ROOT/config/server.properties")
+
+for n in ${@:-1000 10000 50000}; do
+    for mode in platform virtual; do
+        dir=$(mktemp -d)
+        cp -r "$ROOT/config" "$ROOT/data" "$dir"
+        sed -i "s/^pool_mode .*/pool_mode           = $mode/" "$dir/config/server.properties"
+        (cd "$dir" && exec "$JAVA" -cp "$SERVER_CP" serverUtil.ServerMain > server.log 2>&1) &
+        server=$!
+        sleep 2
+        "$JAVA" -cp "$BENCH_CP" serverUtil.LoadBench localhost "$PORT" "$n" "$THINK" "$DURATION" "$mode"
+        kill $server
+        wait $server 2>/dev/null
+        rm -rf "$dir"
+    done
+done
@@ -0,0 +1,66 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import lib.share.packet.Response;
+import lib.share.struct.Score;
+import lib.share.typeAdapter.ResponseTypeAdapter;
+
+/*
+ * Base dei benchmark JMH del server
+ *
+ * JMH applica le annotazioni della superclasse a ogni sottoclasse, anche
+ * annidata: qui stanno le impostazioni comuni, le prove dichiarano solo
+ * modalità, unità e ciò che cambia. Contiene anche i dati e i controlli
+ * usati da più prove.
+ *
+ * Uso: make bench && make runBench BENCH=<regex> [JMH_ARGS="-p param=valore ..."]
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class Bench {
+
+    //stessa configurazione del Gson di RequestHandler
+    static final Gson Gson = new GsonBuilder()
+            .serializeNulls()
+            .registerTypeAdapter(Response.class, new ResponseTypeAdapter())
+            .create();
+
+    /*
+     * Città di n hotel, l'i-esimo (da 0) creato da hotel. Come all'avvio
+     * del server la classifica iniziale è ordinata per rank
+     */
+    static City city(String name, int hotels, IntFunction<Hotel> hotel) {
+        ArrayList<Hotel> list = new ArrayList<>(hotels);
+        for(int i = 0; i < hotels; i++) list.add(hotel.apply(i));
+        return new City(name, list);
+    }
+
+    //hotel di nome "Hotel <città> <id>"; telefono e posizione non sono misurati
+    static Hotel hotel(int id, String city, String description, String[] services, double rank, Score rating) {
+        return new Hotel(id, "Hotel " + city + " " + id, description, city, "1", services, rank, rating, 0);
+    }
+
+    //rank casuale tra 0 e 5 con due decimali, come quelli del RankManager
+    static double rank(Random random) {
+        return Math.round(random.nextDouble() * 500) / 100.0;
+    }
+
+    //controllo dei risultati prima della misura: se fallisce la prova termina senza un numero
+    static void check(boolean ok, String error) {
+        if(!ok) throw new IllegalStateException(error);
+    }
+}
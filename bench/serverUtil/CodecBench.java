@@ -0,0 +1,67 @@
+package serverUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import lib.share.codec.BinaryCodec;
+import lib.share.packet.Response;
+import lib.share.packet.Response.Status;
+import lib.share.struct.HotelDTO;
+import lib.share.struct.Score;
+
+/*
+ * Tempo di andata e ritorno di una risposta in JSON e in BinaryCodec
+ *
+ * Ogni operazione codifica e decodifica la stessa risposta, come fanno
+ * server e client a ogni scambio: PEEK (solo stato), SEARCH (un hotel)
+ * e un lotto di 10 hotel. Le dimensioni dei frame sono stampate
+ * all'avvio di ogni prova
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBench extends Bench {
+
+    @Param({"PEEK", "SEARCH", "BATCH10"})
+    public String payload;
+
+    private Response Reply;
+
+    @Setup
+    public void setup() {
+        HotelDTO[] hotels = new HotelDTO[10];
+        for(int i = 0; i < hotels.length; i++)
+            hotels[i] = new HotelDTO("Hotel Roma " + i, "Un ridente albergo nel cuore della città di Roma", "Roma", "347-4453634",
+                                    new String[]{"TV in camera", "Palestra", "Cancellazione gratuita"}, 3.72, new Score(4, 3.5, 4.2, 3.9, 4.1), i + 1);
+        switch(payload){
+            case "PEEK":    Reply = new Response(Status.SUCCESS); break;
+            case "SEARCH":  Reply = new Response(Status.SUCCESS, hotels[0]); break;
+            default:        Reply = new Response(Status.AWAIT_INPUT, hotels);
+        }
+        BinaryCodec.ArraySink sink = new BinaryCodec.ArraySink(256);
+        BinaryCodec.writeResponse(sink, Reply);
+        System.out.printf("%s: json %d B, binario %d B%n", payload,
+                            Gson.toJson(Reply, Response.class).getBytes(StandardCharsets.UTF_8).length, sink.toByteArray().length);
+    }
+
+    @Benchmark
+    public Response json() {
+        byte[] frame = Gson.toJson(Reply, Response.class).getBytes(StandardCharsets.UTF_8);
+        return Gson.fromJson(new String(frame, StandardCharsets.UTF_8), Response.class);
+    }
+
+    @Benchmark
+    public Response binary() throws IOException {
+        BinaryCodec.ArraySink sink = new BinaryCodec.ArraySink(256);
+        BinaryCodec.writeResponse(sink, Reply);
+        return BinaryCodec.readResponse(ByteBuffer.wrap(sink.toByteArray()));
+    }
+}
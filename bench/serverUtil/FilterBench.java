@@ -0,0 +1,104 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Latenza di SEARCH_FILTER e costo della costruzione di ServiceIndex
+ *
+ * Una città con 80 servizi: 10 offerti dal 50% degli hotel, 10 dal 5% e
+ * 60 dallo 0,5%. Le query combinano servizi frequenti e rari; "+" separa
+ * i servizi nel parametro. index usa ServiceIndex.filter, scan confronta
+ * i nomi dei servizi di ogni hotel della classifica fino a n risultati.
+ * Prima della misura i due risultati devono coincidere
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBench extends Bench {
+
+    private static final int RESULTS = 100;
+
+    @Param({"100000"})
+    public int hotels;
+
+    @Param({"Servizio 0+Servizio 1", "Servizio 0+Servizio 1+Servizio 2+Servizio 3", "Servizio 12", "Servizio 12+Servizio 0",
+            "Servizio 30+Servizio 40", "Servizio 70", "Servizio 15+Servizio 16+Servizio 17"})
+    public String query;
+
+    private City            Milano;
+    private ServiceIndex    Index;
+    private String[]        Services;
+
+    @Setup
+    public void setup() {
+        Milano      = milano(hotels);
+        Index       = new ServiceIndex(List.of(Milano));
+        Services    = query.split("\\+");
+        check(Arrays.equals(scan(), index()), "Risultati diversi dalla scansione per " + query);
+    }
+
+    @Benchmark
+    public HotelDTO[] index() {
+        return Index.filter(Milano, Services, RESULTS);
+    }
+
+    @Benchmark
+    public HotelDTO[] scan() {
+        List<String> wanted = Arrays.asList(Services);
+        ArrayList<HotelDTO> found = new ArrayList<>(RESULTS);
+        for(RankedHotel h : Milano.getSnapshot().Entries){
+            if(found.size() == RESULTS) break;
+            if(new HashSet<>(Arrays.asList(h.services)).containsAll(wanted)) found.add(h);
+        }
+        return found.toArray(new HotelDTO[0]);
+    }
+
+    //costruzione dell'indice sulla stessa città
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public static class Build extends Bench {
+
+        @Param({"100000"})
+        public int hotels;
+
+        private City Milano;
+
+        @Setup
+        public void setup() {
+            Milano = milano(hotels);
+        }
+
+        @Benchmark
+        public ServiceIndex build() {
+            return new ServiceIndex(List.of(Milano));
+        }
+    }
+
+    static City milano(int hotels) {
+        Random random = new Random(11);
+        String[] services = new String[80];
+        double[] frequency = new double[services.length];
+        for(int i = 0; i < services.length; i++){
+            services[i]     = "Servizio " + i;
+            frequency[i]    = i < 10 ? 0.5 : i < 20 ? 0.05 : 0.005;
+        }
+        return city("Milano", hotels, i -> {
+            List<String> offered = new ArrayList<>();
+            for(int k = 0; k < services.length; k++) if(random.nextDouble() < frequency[k]) offered.add(services[k]);
+            return hotel(i, "Milano", "d", offered.toArray(new String[0]), rank(random), null);
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Costo dell'aggiornamento dei primi 100 di GLOBAL_TOP
+ *
+ * Città di 100 hotel (una su dieci vuota). A ogni operazione changed città
+ * pubblicano una nuova classifica, preparata prima della misura, e
+ * GlobalRanking.refresh aggiorna i primi 100. FullSort misura
+ * l'alternativa senza fusione: ordinare tutti gli hotel a ogni ciclo.
+ *
+ * Prima della misura CHECK_CYCLES cicli casuali, metà con rank ripetuti,
+ * devono dare la classifica dell'ordinamento completo
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class GlobalRankingBench extends Bench {
+
+    private static final int PER_CITY       = 100;
+    private static final int SIZE           = 100;
+    private static final int CHECK_CYCLES   = 30;
+
+    @Param({"1000", "10000"})
+    public int cities;
+
+    @Param({"1", "10", "100"})
+    public int changed;
+
+    private List<City>          Cities;
+    //due classifiche pronte per ogni città, pubblicate a turno
+    private RankSnapshot[][]    Prepared;
+    private GlobalRanking       Global;
+    private ArrayList<City>     Changed;
+    private int                 Next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(3);
+        Cities = cities(cities);
+        for(City city : Cities) city.publish(rerank(city, random, false));
+        check(random);
+
+        Prepared = new RankSnapshot[cities][2];
+        for(int c = 0; c < cities; c++){
+            City city = Cities.get(c);
+            Prepared[c][0] = rerank(city, random, false);
+            Prepared[c][1] = rerank(city, random, false);
+        }
+        Global  = new GlobalRanking(Cities, SIZE);
+        Changed = new ArrayList<>(changed);
+    }
+
+    @Benchmark
+    public HotelDTO[] refresh() {
+        Changed.clear();
+        for(int i = 0; i < changed; i++, Next++){
+            int c = Next % cities;
+            Cities.get(c).publish(Prepared[c][(Next / cities) & 1]);
+            Changed.add(Cities.get(c));
+        }
+        Global.refresh(Changed);
+        return Global.range(0, SIZE);
+    }
+
+    //classifica ottenuta ordinando tutti gli hotel
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+    public static class FullSort extends Bench {
+
+        @Param({"1000", "10000"})
+        public int cities;
+
+        private List<City> Cities;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(3);
+            Cities = cities(cities);
+            for(City city : Cities) city.publish(rerank(city, random, false));
+        }
+
+        @Benchmark
+        public RankedHotel[] sort() {
+            return sorted(Cities);
+        }
+    }
+
+    static List<City> cities(int cities) {
+        List<City> list = new ArrayList<>(cities);
+        for(int c = 0; c < cities; c++){
+            String name = "C" + c;
+            int first = c * PER_CITY;
+            list.add(city(name, c % 10 != 9 ? PER_CITY : 0, i -> hotel(first + i, name, "d", new String[0], 0, null)));
+        }
+        return list;
+    }
+
+    //nuova classifica della città con rank casuali, ordinata come dal RankManager
+    static RankSnapshot rerank(City city, Random random, boolean ties) {
+        Hotel[] ranked = city.getSnapshot().Hotels.clone();
+        for(Hotel h : ranked) h.rank = ties ? random.nextInt(6) : rank(random);
+        Arrays.sort(ranked, (h1, h2) -> Double.compare(h2.rank, h1.rank));
+        for(int i = 0; i < ranked.length; i++) ranked[i].setRankPosition(i + 1);
+        return new RankSnapshot(city.getSnapshot().Version + 1, ranked);
+    }
+
+    static RankedHotel[] sorted(List<City> cities) {
+        RankedHotel[] all = cities.stream().flatMap(c -> Arrays.stream(c.getSnapshot().Entries)).toArray(RankedHotel[]::new);
+        Arrays.sort(all, (h1, h2) -> Double.compare(h2.rank, h1.rank));
+        return all;
+    }
+
+    //confronta refresh con l'ordinamento completo su cicli casuali
+    private void check(Random random) {
+        GlobalRanking global = new GlobalRanking(Cities, SIZE);
+        for(int cycle = 0; cycle < CHECK_CYCLES; cycle++){
+            boolean ties = cycle % 2 == 1;
+            ArrayList<City> republished = new ArrayList<>();
+            for(int i = 1 + random.nextInt(Math.min(cities, cycle % 7 == 0 ? cities : 10)); i > 0; i--){
+                City city = Cities.get(random.nextInt(cities));
+                if(republished.contains(city)) continue;
+                city.publish(rerank(city, random, ties));
+                republished.add(city);
+            }
+            global.refresh(republished);
+
+            RankedHotel[] all = sorted(Cities);
+            HotelDTO[] top = global.range(0, SIZE);
+            boolean ok = top.length == Math.min(SIZE, all.length);
+            //ogni hotel una sola volta, preso dalla classifica corrente della sua città
+            Set<HotelDTO> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(int i = 0; ok && i < top.length; i++){
+                RankedHotel h = (RankedHotel) top[i];
+                ok = h.rank == all[i].rank && seen.add(h) && h.Source.Owner.getSnapshot().get(h.Source) == h;
+            }
+            check(ok, "Classifica nazionale diversa dall'ordinamento completo al ciclo " + cycle);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package serverUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import lib.share.codec.BinaryCodec;
+import lib.share.packet.Response;
+import lib.share.packet.Response.Status;
+import lib.share.struct.HotelDTO;
+import lib.share.struct.Score;
+
+/*
+ * Costo della composizione di SEARCH_HOTEL e di una pagina da 10 hotel
+ *
+ * uncached ripete il percorso precedente alla cache: copia dell'hotel
+ * (toDTO) e serializzazione con Gson o BinaryCodec. cached compone la
+ * risposta con EncodedHotel dagli hotel della RankSnapshot, come
+ * RequestHandler.encode. Entrambi scrivono in un frame del pool.
+ * Prima della misura i due frame devono coincidere byte per byte
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HotelCacheBench extends Bench {
+
+    private static final int HOTELS = 200;
+
+    @Param({"SEARCH", "BATCH10"})
+    public String payload;
+
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private BufferPool      Pool;
+    private RankSnapshot    Snapshot;
+    private int             Next;
+
+    @Setup
+    public void setup() throws IOException {
+        Pool = new BufferPool(256, 1 << 20, 1 << 22, 16, false);
+        //nomi e descrizioni da sottoporre a escape, servizi e punteggi anche null
+        Snapshot = city("Roma", HOTELS, i -> new Hotel(i, "Hotel \"é\" <" + i + ">", "descr & più " + i, "Roma", "06-" + i,
+                                                        i % 3 == 0 ? null : new String[]{"wifi", "spa"}, 0,
+                                                        i % 5 == 0 ? null : new Score(3, 2, 4, 1, 5), i + 1)).getSnapshot();
+
+        byte[] expected = bytes(encodeUncached()), got = bytes(encodeCached());
+        check(Arrays.equals(expected, got), "Frame diversi con la cache (" + payload + ", binary=" + binary + ")");
+    }
+
+    @Benchmark
+    public ByteBuffer uncached() throws IOException {
+        return release(encodeUncached());
+    }
+
+    @Benchmark
+    public ByteBuffer cached() {
+        return release(encodeCached());
+    }
+
+    private ByteBuffer encodeUncached() throws IOException {
+        Response response;
+        if(payload.equals("SEARCH")){
+            response = new Response(Status.SUCCESS, Snapshot.Hotels[Next++ % HOTELS].toDTO());
+        } else{
+            HotelDTO[] batch = new HotelDTO[10];
+            for(int i = 0; i < batch.length; i++) batch[i] = Snapshot.Hotels[i].toDTO();
+            response = new Response(Status.AWAIT_INPUT, batch);
+        }
+        FrameWriter out = new FrameWriter(Pool, 512);
+        if(binary)  BinaryCodec.writeResponse(out, response);
+        else        Gson.toJson(response, Response.class, Gson.newJsonWriter(out));
+        return out.finish();
+    }
+
+    private ByteBuffer encodeCached() {
+        Response response;
+        if(payload.equals("SEARCH"))
+            response = new Response(Status.SUCCESS, Snapshot.get(Snapshot.Hotels[Next++ % HOTELS]));
+        else
+            response = new Response(Status.AWAIT_INPUT, Arrays.copyOf(Snapshot.Entries, 10, HotelDTO[].class));
+        FrameWriter out = new FrameWriter(Pool, 512);
+        if(!EncodedHotel.writeResponse(out, response, binary))
+            throw new IllegalStateException("Risposta non gestita da EncodedHotel");
+        return out.finish();
+    }
+
+    //il frame torna al pool: restituito solo per non essere eliminato dal JIT
+    private ByteBuffer release(ByteBuffer frame) {
+        Pool.release(frame);
+        return frame;
+    }
+
+    private byte[] bytes(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        Pool.release(frame);
+        Next = 0;
+        return bytes;
+    }
+}
@@ -0,0 +1,169 @@
+package serverUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import com.google.gson.GsonBuilder;
+
+import lib.share.packet.Request;
+import lib.share.packet.Request.Method;
+
+/*
+ * Latenza e throughput di SEARCH_HOTEL con molte connessioni persistenti
+ *
+ * Apre N connessioni verso un server già avviato e su ognuna ripete
+ * SEARCH_HOTEL a ciclo chiuso: invio, attesa della risposta, pausa di
+ * think ms. Il carico offerto è quindi circa N / think richieste al ms.
+ * Un solo thread con un selettore gestisce tutte le connessioni, così il
+ * client non aggiunge thread alla misura.
+ *
+ * Uso: java serverUtil.LoadBench host port connessioni think_ms secondi [etichetta]
+ * Lo script bench/load.sh avvia il server con pool_mode platform e virtual
+ * e confronta i due a 1k, 10k e 50k connessioni
+ */
+public class LoadBench {
+
+    private static final long WARMUP_NS = 5_000_000_000L;
+
+    private static final class Conn {
+        final SocketChannel Channel;
+        final ByteBuffer    Out;
+        final ByteBuffer    Header = ByteBuffer.allocate(Integer.BYTES);
+        int                 Body;       //byte della risposta ancora da leggere
+        long                Sent;       //istante dell'invio
+        long                Due;        //prossimo invio
+
+        Conn(SocketChannel channel, byte[] frame) {
+            this.Channel    = channel;
+            this.Out        = ByteBuffer.wrap(frame);
+        }
+    }
+
+    private static long[]   samples = new long[1 << 16];
+    private static int      count;
+    private static long     errors;
+
+    public static void main(String[] args) throws Exception {
+        String host     = args[0];
+        int port        = Integer.parseInt(args[1]);
+        int connections = Integer.parseInt(args[2]);
+        long think      = Long.parseLong(args[3]) * 1_000_000L;
+        long duration   = Long.parseLong(args[4]) * 1_000_000_000L;
+        String label    = args.length > 5 ? args[5] : "";
+
+        String json = new GsonBuilder().serializeNulls().create()
+                        .toJson(new Request(Method.SEARCH_HOTEL, new String[]{"Roma", "Hotel Roma 1"}), Request.class);
+        byte[] body  = json.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = ByteBuffer.allocate(Integer.BYTES + body.length).putInt(body.length).put(body).array();
+
+        Selector selector = Selector.open();
+        Conn[] conns = new Conn[connections];
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        long setup = System.nanoTime();
+        for(int i = 0; i < connections; i++){
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            conns[i] = new Conn(channel, frame);
+            channel.register(selector, 0, conns[i]);
+        }
+        setup = System.nanoTime() - setup;
+
+        //primi invii distribuiti sull'intervallo di pausa, a connessioni aperte
+        long begin = System.nanoTime();
+        Random random = new Random(1);
+        for(Conn conn : conns) conn.Due = begin + (long) (random.nextDouble() * think);
+        Arrays.sort(conns, (a, b) -> Long.compare(a.Due, b.Due));
+        ArrayDeque<Conn> waiting = new ArrayDeque<>(Arrays.asList(conns));  //in ordine di Due: la pausa è costante
+
+        long measureFrom = begin + WARMUP_NS, end = measureFrom + duration;
+        long completed = 0;
+        while(true){
+            long now = System.nanoTime();
+            if(now >= end) break;
+            while(!waiting.isEmpty() && waiting.peekFirst().Due <= now){
+                Conn conn = waiting.pollFirst();
+                conn.Out.clear();
+                conn.Sent = now;
+                conn.Channel.write(conn.Out);
+                conn.Channel.keyFor(selector).interestOps(conn.Out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+            long timeout = waiting.isEmpty() ? 10 : Math.max(1, (waiting.peekFirst().Due - now) / 1_000_000L);
+            selector.select(Math.min(timeout, 10));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                Conn conn = (Conn) key.attachment();
+                try{
+                    if(key.isWritable()){
+                        conn.Channel.write(conn.Out);
+                        if(!conn.Out.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                    } else if(key.isReadable() && read(conn)){
+                        long done = System.nanoTime();
+                        if(conn.Sent >= measureFrom){
+                            record((done - conn.Sent) / 1000);
+                            completed++;
+                        }
+                        key.interestOps(0);
+                        conn.Due = conn.Sent + think;
+                        if(conn.Due < done) conn.Due = done;
+                        waiting.add(conn);
+                    }
+                } catch(IOException e){
+                    errors++;
+                    key.cancel();
+                    conn.Channel.close();
+                }
+            }
+        }
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        System.out.printf("%-8s conn=%6d think=%dms  %8.0f req/s  p50=%6d us  p99=%7d us  p99.9=%7d us  max=%7d us  errors=%d  (setup %.1f s)%n",
+                            label, connections, think / 1_000_000L, completed / (duration / 1e9),
+                            pct(sorted, 0.50), pct(sorted, 0.99), pct(sorted, 0.999),
+                            count > 0 ? sorted[count - 1] : 0, errors, setup / 1e9);
+        selector.close();
+    }
+
+    //true quando la risposta è stata letta per intero
+    private static boolean read(Conn conn) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(8192);
+        while(true){
+            if(conn.Header.hasRemaining()){
+                if(conn.Channel.read(conn.Header) < 0) throw new IOException("connessione chiusa");
+                if(conn.Header.hasRemaining()) return false;
+                conn.Body = conn.Header.getInt(0);
+            }
+            while(conn.Body > 0){
+                scratch.clear().limit(Math.min(scratch.capacity(), conn.Body));
+                int n = conn.Channel.read(scratch);
+                if(n < 0) throw new IOException("connessione chiusa");
+                if(n == 0) return false;
+                conn.Body -= n;
+            }
+            conn.Header.clear();
+            return true;
+        }
+    }
+
+    private static void record(long micros) {
+        if(count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = micros;
+    }
+
+    private static long pct(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
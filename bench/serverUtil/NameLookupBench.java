@@ -0,0 +1,60 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Costo di una SEARCH_HOTEL riuscita al crescere della città
+ *
+ * scan ripete la ricerca precedente all'indice: scansione della lista
+ * della città sotto il suo monitor con toLowerCase su ogni nome.
+ * index usa City.find. I nomi cercati sono casuali tra quelli presenti
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NameLookupBench extends Bench {
+
+    @Param({"10000"})
+    public int hotels;
+
+    private ArrayList<Hotel>    List;
+    private City                Bigcity;
+    private String[]            Queries;
+    private int                 Next;
+
+    @Setup
+    public void setup() {
+        Bigcity = city("Bigcity", hotels, i -> hotel(i, "Bigcity", "d", new String[0], 0, null));
+        List    = new ArrayList<>(Arrays.asList(Bigcity.getSnapshot().Hotels));
+        Random random = new Random(1);
+        Queries = new String[1 << 14];
+        for(int i = 0; i < Queries.length; i++) Queries[i] = City.normalize("hotel bigcity " + random.nextInt(hotels));
+    }
+
+    @Benchmark
+    public Hotel scan() {
+        String name = Queries[Next++ & (Queries.length - 1)];
+        synchronized(List){
+            for(Hotel h : List)
+                if(h.name.toLowerCase().equals(name)) return h;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Hotel index() {
+        return Bigcity.find(Queries[Next++ & (Queries.length - 1)]);
+    }
+}
@@ -0,0 +1,205 @@
+package serverUtil;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import lib.share.struct.Score;
+
+/*
+ * Throughput delle recensioni in attesa: ReviewAccumulator contro la ReviewsTable
+ *
+ * 63 thread aggiungono recensioni a hot hotel su 10000 mentre un thread le
+ * preleva ogni ms, come il RankManager. Il gruppo accumulator usa
+ * ReviewAccumulator (takeDirty e drainTo), il gruppo map la
+ * ConcurrentHashMap<Integer, ArrayList<Review>> sostituita (compute
+ * in aggiunta, remove nel prelievo). Il numero di thread si cambia con
+ * -tg produttori,1.
+ *
+ * Come i worker del server, che non ricevono recensioni più in fretta di
+ * quanto i client le inviino, un produttore aggiunge al più QUOTA
+ * recensioni per ciclo di prelievo e poi attende il ciclo successivo: senza
+ * limite, con un solo core i produttori accumulano recensioni più in fretta
+ * di quanto un thread le prelevi e la prova misura il GC.
+ *
+ * Al termine di ogni iterazione le recensioni rimaste vengono prelevate:
+ * numero e somma dei numeri di sequenza devono coincidere con quelli
+ * aggiunti
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReviewAccumulatorBench extends Bench {
+
+    private static final int    HOTELS  = 10000;
+    private static final long   CYCLE_MS = 1;
+    private static final int    QUOTA   = 16384;
+    private static final Score  SCORE   = Score.Placeholder();
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    @Param({"4", "1000"})
+    public int hot;
+
+    private List<City>          Cities;
+    private ReviewAccumulator   Accumulator;
+    private ConcurrentHashMap<Integer, ArrayList<Review>> Table;
+    private LongAdder           Added, AddedSum;
+    //cicli di prelievo completati, scritto solo dal thread che preleva
+    private volatile long       Cycles;
+    //scritti solo dal thread che preleva e dal TearDown, dopo la sua fine
+    private long                Drained, DrainedSum;
+
+    //numeri di sequenza distinti per ogni produttore
+    @State(Scope.Thread)
+    public static class Producer {
+        private static int  Ids;
+        final int           Id;
+        int                 Next;
+        //recensioni aggiunte nel ciclo di prelievo Cycle
+        long                Cycle;
+        int                 Count;
+
+        public Producer() {
+            synchronized(Producer.class){ Id = Ids++; }
+        }
+
+        int hotel(int hot) {
+            return 1 + (Next % hot);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Cities = List.of(city("c", HOTELS, i -> hotel(i + 1, "c", "", new String[0], 0, Score.Placeholder())));
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        Accumulator = new ReviewAccumulator(Cities);
+        Table       = new ConcurrentHashMap<>();
+        Added       = new LongAdder();
+        AddedSum    = new LongAdder();
+        Drained     = DrainedSum = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void check() {
+        drainAccumulator();
+        drainTable();
+        check(Added.sum() == Drained && AddedSum.sum() == DrainedSum, "Aggiunte " + Added.sum() + " recensioni, prelevate " + Drained);
+    }
+
+    @Benchmark
+    @Group("accumulator")
+    @GroupThreads(63)
+    public boolean addAccumulator(Producer producer, Control control) {
+        Review review = review(producer, control);
+        return review != null && Accumulator.add(review);
+    }
+
+    @Benchmark
+    @Group("accumulator")
+    @GroupThreads(1)
+    public long drainAccumulator() {
+        long before = Drained;
+        ArrayList<Hotel> dirty = new ArrayList<>();
+        ArrayList<Review> reviews = new ArrayList<>();
+        Accumulator.takeDirty(dirty);
+        for(Hotel h : dirty){
+            reviews.clear();
+            Accumulator.drainTo(h.getID(), reviews);
+            count(reviews);
+        }
+        Cycles++;
+        pause();
+        return Drained - before;
+    }
+
+    @Benchmark
+    @Group("map")
+    @GroupThreads(63)
+    public ArrayList<Review> addMap(Producer producer, Control control) {
+        Review review = review(producer, control);
+        if(review == null) return null;
+        return Table.compute(review.HotelId, (key, value) -> {
+            if(value == null) value = new ArrayList<Review>();
+            value.add(review);
+            return value;
+        });
+    }
+
+    @Benchmark
+    @Group("map")
+    @GroupThreads(1)
+    public long drainMap() {
+        long before = Drained;
+        drainTable();
+        Cycles++;
+        pause();
+        return Drained - before;
+    }
+
+    private void drainTable() {
+        for(int h = 1; h <= HOTELS; h++){
+            ArrayList<Review> reviews = Table.remove(h);
+            if(reviews != null) count(reviews);
+        }
+    }
+
+    //null se il produttore ha esaurito la quota e la misura è terminata
+    private Review review(Producer producer, Control control) {
+        while(producer.Count >= QUOTA){
+            //dopo la misura JMH continua a eseguire i metodi finché tutti i
+            //thread non terminano, ma il prelievo potrebbe essere già finito
+            if(control.stopMeasurement) return null;
+            long cycle = Cycles;
+            if(cycle != producer.Cycle){
+                producer.Cycle = cycle;
+                producer.Count = 0;
+            } else Thread.yield();
+        }
+        producer.Count++;
+        int sequence = producer.Id << 24 | (producer.Next & 0xFFFFFF);
+        Review review = new Review(producer.hotel(hot), "u", sequence, NOW, SCORE);
+        producer.Next++;
+        Added.increment();
+        AddedSum.add(sequence);
+        return review;
+    }
+
+    private void count(ArrayList<Review> reviews) {
+        for(Review r : reviews){
+            Drained++;
+            DrainedSum += r.UserExp;
+        }
+    }
+
+    private static void pause() {
+        try{
+            Thread.sleep(CYCLE_MS);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
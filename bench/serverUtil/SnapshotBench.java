@@ -0,0 +1,124 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import lib.share.struct.HotelDTO;
+import lib.share.struct.Score;
+
+/*
+ * Latenza di SEARCH_HOTEL e SEARCH_ALL durante il ricalcolo dei rank
+ *
+ * Un thread ricalcola il punteggio di tutti gli hotel della città e la
+ * riordina ogni 5 ms, mentre 4 thread leggono:
+ * - lock: come prima delle RankSnapshot, il ricalcolo avviene sotto il
+ *   monitor della lista e di ogni hotel; SEARCH_HOTEL copia l'hotel sotto
+ *   il suo monitor e SEARCH_ALL copia la lista sotto quello della lista
+ * - snapshot: il ricalcolo pubblica una nuova RankSnapshot e i lettori
+ *   usano quella corrente senza lock
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class SnapshotBench extends Bench {
+
+    private static final long RERANK_MS = 5;
+
+    @Param({"5000"})
+    public int hotels;
+
+    @Param({"lock", "snapshot"})
+    public String mode;
+
+    private ArrayList<Hotel>    List;
+    private City                Roma;
+    private Hotel[]             Hotels;
+    private boolean             Locked;
+    private volatile boolean    Stop;
+    private Thread              Writer;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final Random Random = new Random();
+    }
+
+    @Setup
+    public void setup() {
+        Roma    = city("Roma", hotels, i -> hotel(i, "Roma", "d", new String[]{"wifi"}, 0, new Score(3, 3, 3, 3, 3)));
+        Hotels  = Roma.getSnapshot().Hotels.clone();
+        List    = new ArrayList<>(Arrays.asList(Hotels));
+        Locked  = mode.equals("lock");
+        Stop    = false;
+        Writer  = new Thread(this::rerank);
+        Writer.start();
+    }
+
+    @TearDown
+    public void stop() throws InterruptedException {
+        Stop = true;
+        Writer.join();
+    }
+
+    @Benchmark
+    public HotelDTO search(Cursor cursor) {
+        Hotel h = Hotels[cursor.Random.nextInt(Hotels.length)];
+        if(Locked){
+            synchronized(h){
+                return h.toDTO();
+            }
+        }
+        return Roma.getSnapshot().get(h);
+    }
+
+    @Benchmark
+    public HotelDTO[] searchAll() {
+        if(Locked){
+            HotelDTO[] all = new HotelDTO[List.size()];
+            synchronized(List){
+                for(int i = 0; i < all.length; i++) all[i] = List.get(i).toDTO();
+            }
+            return all;
+        }
+        return Roma.getSnapshot().Entries;
+    }
+
+    private void rerank() {
+        Random random = new Random(1);
+        while(!Stop){
+            if(Locked){
+                synchronized(List){
+                    for(Hotel h : List)
+                        synchronized(h){ h.setRating(new Score(random.nextDouble() * 5, 3, 3, 3, 3)); }
+                    List.sort((h1, h2) -> Double.compare(h2.rank, h1.rank));
+                    for(int i = 0; i < List.size(); i++) List.get(i).setRankPosition(i + 1);
+                }
+            } else{
+                RankSnapshot current = Roma.getSnapshot();
+                Hotel[] ranked = current.Hotels.clone();
+                for(Hotel h : ranked)
+                    synchronized(h){ h.setRating(new Score(random.nextDouble() * 5, 3, 3, 3, 3)); }
+                Arrays.sort(ranked, (h1, h2) -> Double.compare(h2.rank, h1.rank));
+                for(int i = 0; i < ranked.length; i++) ranked[i].setRankPosition(i + 1);
+                Roma.publish(new RankSnapshot(current.Version + 1, ranked, current));
+            }
+            try{
+                Thread.sleep(RERANK_MS);
+            } catch(InterruptedException e){
+                return;
+            }
+        }
+    }
+}
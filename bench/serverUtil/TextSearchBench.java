@@ -0,0 +1,147 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Latenza di SEARCH_TEXT e costo della costruzione di TextIndex
+ *
+ * Corpus sintetico: città di 1000 hotel, descrizioni di 12 parole con
+ * frequenza simile a Zipf su un vocabolario di 20000 e servizi casuali.
+ * Le query vanno da termini rari a termini presenti in quasi tutti gli
+ * hotel ("hotel"), su tutto il corpus o su una sola città.
+ *
+ * Prima della misura i primi 10 risultati di ogni query devono coincidere
+ * con quelli di un punteggio calcolato per forza bruta
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextSearchBench extends Bench {
+
+    private static final int    PER_CITY    = 1000;
+    private static final int    RESULTS     = 10;
+    private static final String[] SERVICES  = {"Wi-Fi", "Sauna", "Piscina", "Palestra", "Posto auto", "TV in camera",
+                                                "Frigo in camera", "Paga in struttura", "Servizio in camera", "Cancellazione gratuita"};
+
+    @Param({"10000", "100000"})
+    public int docs;
+
+    @Param({"sauna piscina", "w1 w2 wi-fi", "w5z palestra", "w1", "hotel", "w3 w9 w1k w2f"})
+    public String query;
+
+    //true: la ricerca è limitata a una città
+    @Param({"false", "true"})
+    public boolean city;
+
+    private List<City>  Cities;
+    private TextIndex   Index;
+    private City        Restrict;
+
+    @Setup
+    public void setup() {
+        Cities  = corpus(docs);
+        Index   = new TextIndex(Cities);
+        Restrict = city ? Cities.get(Cities.size() / 2) : null;
+        check();
+    }
+
+    @Benchmark
+    public HotelDTO[] search() {
+        return Index.search(query, Restrict, RESULTS);
+    }
+
+    //costruzione dell'indice sullo stesso corpus
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public static class Build extends Bench {
+
+        @Param({"10000", "100000"})
+        public int docs;
+
+        private List<City> Cities;
+
+        @Setup
+        public void setup() {
+            Cities = corpus(docs);
+            System.out.printf("postings: %.1f MB%n", new TextIndex(Cities).postingsSize() / 1e6);
+        }
+
+        @Benchmark
+        public TextIndex build() {
+            return new TextIndex(Cities);
+        }
+    }
+
+    static List<City> corpus(int docs) {
+        Random random = new Random(7);
+        String[] vocabulary = new String[20000];
+        for(int i = 0; i < vocabulary.length; i++) vocabulary[i] = "w" + Integer.toString(i, 36);
+
+        List<City> cities = new ArrayList<>();
+        for(int c = 0; c * PER_CITY < docs; c++){
+            String name = "Citta" + c;
+            int first = c * PER_CITY;
+            cities.add(city(name, Math.min(PER_CITY, docs - first), i -> {
+                StringBuilder description = new StringBuilder("Un hotel a " + name);
+                for(int k = 0; k < 12; k++)
+                    description.append(' ').append(vocabulary[(int) Math.min(vocabulary.length - 1, Math.abs(random.nextGaussian()) * 2000)]);
+                List<String> services = new ArrayList<>();
+                for(String s : SERVICES) if(random.nextBoolean()) services.add(s);
+                return hotel(first + i, name, description.toString(), services.toArray(new String[0]), rank(random), null);
+            }));
+        }
+        return cities;
+    }
+
+    //confronta i risultati con idf(termine) * (1 + rank) calcolato su ogni hotel
+    private void check() {
+        HashMap<String, Integer> frequency = new HashMap<>();
+        HashMap<Hotel, Set<String>> terms = new HashMap<>();
+        for(City c : Cities){
+            for(Hotel h : c.getSnapshot().Hotels){
+                Set<String> tokens = tokens(h.getDescription() + " " + String.join(" ", h.getServices()));
+                terms.put(h, tokens);
+                for(String t : tokens) frequency.merge(t, 1, Integer::sum);
+            }
+        }
+        ArrayList<Object[]> expected = new ArrayList<>();
+        for(City c : Cities){
+            if(Restrict != null && c != Restrict) continue;
+            for(Hotel h : c.getSnapshot().Hotels){
+                float score = 0;
+                for(String t : tokens(query))
+                    if(terms.get(h).contains(t)) score += (float) Math.log(1.0 + (double) docs / frequency.get(t));
+                if(score > 0) expected.add(new Object[]{score * (float) (1.0 + h.rank), h.getID()});
+            }
+        }
+        expected.sort((x, y) -> x[0].equals(y[0]) ? Integer.compare((int) x[1], (int) y[1]) : Float.compare((float) y[0], (float) x[0]));
+
+        HotelDTO[] got = search();
+        boolean ok = got.length == Math.min(RESULTS, expected.size());
+        for(int i = 0; ok && i < got.length; i++)
+            ok = ((RankedHotel) got[i]).Source.getID() == (int) expected.get(i)[1];
+        check(ok, "Risultati diversi dalla forza bruta per '" + query + "': " + Arrays.toString(got));
+    }
+
+    private static Set<String> tokens(String text) {
+        Set<String> tokens = new HashSet<>();
+        for(String t : text.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+            if(t.length() >= 2) tokens.add(t);
+        return tokens;
+    }
+}
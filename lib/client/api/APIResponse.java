@@ -32,6 +32,7 @@ public class APIResponse {
         statusMapping.put(Error.BAD_SESSION,    Status.SERVER_ERROR         );
         statusMapping.put(Error.INVALID_PARAMETER, Status.INVALID_PARAMETER);
         statusMapping.put(Error.SERVER_ERROR,   Status.SERVER_ERROR     );
+        statusMapping.put(Error.SERVER_BUSY,    Status.SERVER_BUSY      );
     }
 
     private Status status;
@@ -157,6 +158,21 @@ public class APIResponse {
 
     }
 
+    //esiti delle singole recensioni di InsertReviews (null se non elaborate)
+    public Status[] getStatusList() {
+        return data instanceof Status[] ? (Status[]) data : new Status[0];
+    }
+
+    //stato API corrispondente a un errore del server
+    protected static Status statusOf(Error error) {
+        return statusMapping.get(error);
+    }
+
+    //array vuoto se i dati non sono stringhe (un array JSON vuoto non ha tipo)
+    public String[] getStringList() {
+        return data instanceof String[] ? (String[]) data : new String[0];
+    }
+
     public HotelDTO getHotel() {
         try{
             return (HotelDTO) data;
@@ -5,15 +5,21 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import lib.share.codec.BinaryCodec;
 import lib.share.packet.Request;
 import lib.share.packet.Response;
 import lib.share.packet.Request.Method;
 import lib.share.security.HashUtils;
 import lib.share.struct.HotelDTO;
+import lib.share.struct.ReviewEntry;
 import lib.share.struct.Score;
 import lib.share.typeAdapter.ResponseTypeAdapter;
 
@@ -26,10 +32,31 @@ public class HotelierAPI {
     private OutputStream    out;
     private InputStream     in;
     private boolean fetch_init = false;
+    private long    retryAfter = 0;    //attesa suggerita dall'ultimo SERVER_BUSY (ms)
+    private final boolean binary;       //usa la codifica binaria (BinaryCodec)
+    private boolean negotiated = false; //MAGIC già inviato sulla connessione corrente
+    //salt degli utenti che hanno già effettuato login o registrazione [LOGIN_FAST]
+    private final HashMap<String, String> salts = new HashMap<>();
+    //token dell'ultimo login per riprendere la sessione dopo una disconnessione [RESUME]
+    private String  resumeToken = null;
+    //lotti REVIEW_BATCH inviati prima di attendere la prima risposta
+    private static final int REVIEW_PIPELINE = 4;
     
     public HotelierAPI(String serverAddress, int serverPort) {
+        this(serverAddress, serverPort, false);
+    }
+
+    /**
+     * Creates an API client.
+     *
+     * @param serverAddress The address of the server.
+     * @param serverPort The port of the server.
+     * @param binary Whether the connection uses the compact binary encoding instead of JSON.
+     */
+    public HotelierAPI(String serverAddress, int serverPort, boolean binary) {
         this.serverAddress = serverAddress;
         this.serverPort = serverPort;
+        this.binary = binary;
         this.gson = new  GsonBuilder()
                         .serializeNulls()
                         //.registerTypeAdapter(Request.class,new RequestTypeAdapter())
@@ -43,6 +70,7 @@ public class HotelierAPI {
             //initialize output end
             this.out = socket.getOutputStream();
             this.in  = socket.getInputStream ();
+            this.negotiated = false;
         }catch(Exception e){
             throw new ConnectionException("Failed to connect to the server",e);
         }
@@ -60,12 +88,16 @@ public class HotelierAPI {
     }
 
     private void write(String jsonString) throws CommunicationException {
+        write(jsonString.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void write(byte[] bytes) throws CommunicationException {
         try {
-            byte[] jsonBytes = jsonString.getBytes("UTF-8");
-            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
-            lengthBuffer.putInt(jsonBytes.length);
-            out.write(lengthBuffer.array(), 0, Integer.BYTES);
-            out.write(jsonBytes);
+            //lunghezza e corpo in un'unica scrittura: due scritture piccole
+            //attendono l'ACK ritardato del server (algoritmo di Nagle)
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+            frame.putInt(bytes.length).put(bytes);
+            out.write(frame.array());
             out.flush();
         } catch (Exception e) {
             throw new CommunicationException("Failed to send data to the server", e);
@@ -73,6 +105,10 @@ public class HotelierAPI {
     }
  
     private String read() throws CommunicationException {
+        return new String(readFrame(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readFrame() throws CommunicationException {
         try {
             ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
             //lettura bloccante [lungezza pacchetto]
@@ -94,7 +130,7 @@ public class HotelierAPI {
                 //se ha finito di leggere tutti i bytes esce dal ciclo
                 bytesRead += result;
             }
-            return new String(jsonBytes, "UTF-8");
+            return jsonBytes;
 
         } catch (Exception e) {
             throw new CommunicationException("Failed to receive data from the server", e);
@@ -103,23 +139,106 @@ public class HotelierAPI {
 
 
     private void sendRequest(Request request) throws CommunicationException {
-        String jsonString = gson.toJson(request, Request.class);
-        write(jsonString);
+        if(!binary){
+            String jsonString = gson.toJson(request, Request.class);
+            write(jsonString);
+            return;
+        }
+        BinaryCodec.ArraySink sink = new BinaryCodec.ArraySink(64);
+        //il primo pacchetto della connessione negozia la codifica binaria
+        if(!negotiated){
+            sink.putByte(BinaryCodec.MAGIC);
+            negotiated = true;
+        }
+        try {
+            BinaryCodec.writeRequest(sink, request);
+        } catch (Exception e) {
+            throw new CommunicationException("Failed to encode the request", e);
+        }
+        write(sink.toByteArray());
     }
 
     private Response getResponse() throws CommunicationException, ResponseParsingException {
-        String jsonString = read();
+        Response response;
         try {
-            return gson.fromJson(jsonString, Response.class);
+            response = binary   ? BinaryCodec.readResponse(ByteBuffer.wrap(readFrame()))
+                                : gson.fromJson(read(), Response.class);
+        } catch (CommunicationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ResponseParsingException("Failed to parse response from server", e);
         }
+        //server sovraccarico: il payload contiene l'attesa suggerita
+        if(response.getError() == Response.Error.SERVER_BUSY && response.getData() != null){
+            try{
+                retryAfter = Long.parseLong(response.getData().toString());
+            } catch(NumberFormatException e){
+                retryAfter = 0;
+            }
+        }
+        return response;
     }
 
-    public APIResponse HandleIsLogged() throws CommunicationException, ResponseParsingException {
-        Request request = new Request(Method.IS_LOGGED,null);
+    /**
+     * Returns the delay (ms) suggested by the server in the last
+     * response with status SERVER_BUSY.
+     *
+     * @return The suggested delay before retrying the request.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /*
+     * Invia la richiesta e ne restituisce la risposta. Se la connessione è
+     * caduta si riconnette e riprende la sessione (reconnect); la richiesta
+     * viene ripetuta sulla nuova connessione solo se retry è true, cioè se
+     * un secondo invio non può avere effetti diversi dal primo. Altrimenti
+     * l'eccezione arriva al chiamante, ma la connessione è già ripristinata
+     */
+    private Response exchange(Request request, boolean retry) throws CommunicationException, ResponseParsingException {
+        try{
+            sendRequest(request);
+            return getResponse();
+        } catch(CommunicationException e){
+            if(!reconnect() || !retry) throw e;
+        }
         sendRequest(request);
-        Response response = getResponse();
+        return getResponse();
+    }
+
+    /*
+     * Riapre la connessione e, se l'utente era loggato, riprende la sessione
+     * con il token dell'ultimo login (RESUME). Un token rifiutato viene
+     * scartato: le richieste successive risponderanno MUST_LOGIN.
+     * Restituisce false se il server non è raggiungibile
+     */
+    private boolean reconnect() {
+        try{
+            disconnect();
+        } catch(ConnectionException e){
+            //la connessione è comunque persa
+        }
+        try{
+            connect();
+            if(resumeToken == null) return true;
+            sendRequest(new Request(Method.RESUME, resumeToken));
+            //il server consuma il token anche se la ripresa fallisce
+            resumeToken = tokenOf(getResponse());
+            return true;
+        } catch(APIException e){
+            return false;
+        }
+    }
+
+    //token contenuto in una risposta di login o di ripresa, null se assente
+    private static String tokenOf(Response response) {
+        return response.getError() == Response.Error.NO_ERR && response.getData() != null ?
+                    response.getData().toString() : null;
+    }
+
+    public APIResponse HandleIsLogged() throws CommunicationException, ResponseParsingException {
+        Response response = exchange(new Request(Method.IS_LOGGED,null), true);
         return response.getStatus() == Response.Status.FAILURE ? 
                                         new APIResponse(response.getError()) : 
                                         new APIResponse(Status.OK);
@@ -131,9 +250,7 @@ public class HotelierAPI {
         else if(password == null || password.trim().isEmpty())
             return new APIResponse(Status.INVALID_PARAMETER, "Password cannot be empty");
         Request request = new Request(override, username.trim());
-        sendRequest(request);
-
-        Response response = getResponse();
+        Response response = exchange(request, true);
 
         if(response.getStatus() == Response.Status.FAILURE){
             return new APIResponse(response.getError());
@@ -145,13 +262,39 @@ public class HotelierAPI {
         //inserisce la password
 
         request.setData(password);
-        sendRequest(request);
-        response = getResponse();
+        response = exchange(request, false);
+        //il salt è valido per i login successivi
+        if(response.getError() == Response.Error.NO_ERR) salts.put(username.trim(), salt);
+        if(override == Method.LOGIN && response.getError() == Response.Error.NO_ERR) resumeToken = tokenOf(response);
         return new APIResponse(response.getError());
     }
 
+    /*
+     * Se il salt dell'utente è noto da un'operazione precedente il login
+     * richiede un solo pacchetto (LOGIN_FAST), altrimenti si usa lo
+     * scambio in due passaggi
+     */
     public APIResponse UserLogin(String username, String password) throws CommunicationException, ResponseParsingException {
-        return HandleUserOperation(username, password, Method.LOGIN);
+        String salt = username != null ? salts.get(username.trim()) : null;
+        if(salt == null || password == null || password.trim().isEmpty())
+            return HandleUserOperation(username, password, Method.LOGIN);
+        username = username.trim();
+
+        //al più un nuovo tentativo, se il salt dell'utente è cambiato
+        for(int attempt = 0; attempt < 2; attempt++){
+            Response response = exchange(new Request(Method.LOGIN_FAST, new String[]{username, HashUtils.computeSHA256Hash(password, salt)}), true);
+            if(response.getStatus() != Response.Status.AWAIT_INPUT){
+                if(response.getError() == Response.Error.NO_SUCH_USER) salts.remove(username);
+                if(response.getError() == Response.Error.NO_ERR) resumeToken = tokenOf(response);
+                return new APIResponse(response.getError());
+            }
+            //hash rifiutato: con lo stesso salt la password è errata
+            String current = String.valueOf(response.getData());
+            if(current.equals(salt)) break;
+            salts.put(username, current);
+            salt = current;
+        }
+        return new APIResponse(Response.Error.BAD_PASSWD);
     }
 
     public APIResponse UserRegister(String username, String password) throws CommunicationException, ResponseParsingException {
@@ -163,9 +306,7 @@ public class HotelierAPI {
     }
 
     public APIResponse ShowUserBadge() throws CommunicationException, ResponseParsingException {
-        sendRequest(new Request(Method.SHOW_BADGE, null));
-
-        Response response = getResponse();
+        Response response = exchange(new Request(Method.SHOW_BADGE, null), true);
 
         return response.getStatus() == Response.Status.FAILURE ? 
                                         new APIResponse(response.getError()) : 
@@ -174,9 +315,9 @@ public class HotelierAPI {
     }
 
     public APIResponse UserLogout() throws CommunicationException, ResponseParsingException {
-        sendRequest(new Request(Method.LOGOUT, null));
-
-        return new APIResponse(getResponse().getError());
+        Response response = exchange(new Request(Method.LOGOUT, null), true);
+        resumeToken = null;
+        return new APIResponse(response.getError());
     }
 
     public APIResponse InsertReview(String City, String Hotel, Score RevScore) throws CommunicationException, ResponseParsingException {
@@ -187,34 +328,175 @@ public class HotelierAPI {
          * Prepara il pacchetto con payload [citta, Hotel] e casting a oggetto
          */
         Request request = new Request(Method.REVIEW, new String[]{City,Hotel});
-        sendRequest(request);
-        Response response = getResponse();
+        Response response = exchange(request, true);
         if(response.getStatus() == Response.Status.FAILURE){
             return new APIResponse(response.getError());
         }
         /*Invio seconda richiesta inserendo il punteggio dell'hotel */
         request = new Request(Method.REVIEW, RevScore);
         //meglio di usare un if statement con Status.OK tanto NO_ERR viene mappato in Status.OK
-        sendRequest(request);        
-        return new APIResponse(getResponse().getError());
+        return new APIResponse(exchange(request, false).getError());
+
+    }
+
+    /*
+     * Inserisce le recensioni in lotti di batchSize (REVIEW_BATCH), tenendo
+     * in volo al più REVIEW_PIPELINE lotti. Ogni lotto deve rientrare nella
+     * dimensione massima dei pacchetti del server.
+     * 
+     * I dati sono gli esiti delle singole recensioni (getStatusList), nello
+     * stesso ordine. Se un lotto viene rifiutato per intero la risposta ha
+     * il suo errore e gli esiti dei lotti non elaborati restano null.
+     * Se la connessione cade i lotti non vengono ripetuti
+     */
+    public APIResponse InsertReviews(List<ReviewEntry> reviews, int batchSize) throws CommunicationException, ResponseParsingException {
+        if(batchSize <= 0) return new APIResponse(Status.INVALID_PARAMETER);
+        Status[] results = new Status[reviews.size()];
+        ArrayDeque<Integer> pending = new ArrayDeque<>();   //dimensione dei lotti in volo
+        Response.Error failure = null;
+        int sent = 0, received = 0;
+
+        try{
+            while(received < results.length){
+                //dopo un rifiuto non si inviano altri lotti
+                while(failure == null && sent < results.length && pending.size() < REVIEW_PIPELINE){
+                    int size = Math.min(batchSize, results.length - sent);
+                    sendRequest(new Request(Method.REVIEW_BATCH, reviews.subList(sent, sent + size).toArray(new ReviewEntry[0])));
+                    pending.add(size);
+                    sent += size;
+                }
+                if(pending.isEmpty()) break;
+
+                int size = pending.poll();
+                Response response = getResponse();
+                if(response.getStatus() == Response.Status.FAILURE){
+                    if(failure == null) failure = response.getError();
+                } else {
+                    Response.Error[] errors = toErrors(response.getData(), size);
+                    for(int i = 0; i < size; i++) results[received + i] = APIResponse.statusOf(errors[i]);
+                }
+                received += size;
+            }
+        } catch(CommunicationException e){
+            //gli esiti dei lotti in volo sono ignoti: non si ripetono, ma la sessione viene ripresa
+            reconnect();
+            throw e;
+        }
+        return failure != null ? new APIResponse(failure, results) : new APIResponse(Status.OK, results);
+    }
 
+    //esiti di un lotto: ordinali con la codifica binaria, nomi con il JSON
+    private static Response.Error[] toErrors(Object data, int size) throws ResponseParsingException {
+        try{
+            Response.Error[] errors;
+            if(data instanceof Response.Error[]) errors = (Response.Error[]) data;
+            else{
+                String[] names = (String[]) data;
+                errors = new Response.Error[names.length];
+                for(int i = 0; i < names.length; i++) errors[i] = Response.Error.valueOf(names[i]);
+            }
+            if(errors.length != size) throw new IllegalArgumentException("Esiti attesi: " + size + ", ricevuti: " + errors.length);
+            return errors;
+        } catch(Exception e){
+            throw new ResponseParsingException("Failed to parse review results", e);
+        }
     }
 
     public APIResponse HotelSearch(String City, String Hotel) throws CommunicationException, ResponseParsingException {
         /*API call to search for a hotel */
         Request request = new Request(Method.SEARCH_HOTEL, new String[]{City,Hotel});
-        sendRequest(request);
-        Response response = getResponse();
+        Response response = exchange(request, true);
         return response.getStatus() == Response.Status.FAILURE ? 
                                         new APIResponse(response.getError()) : 
                                         new APIResponse(Status.OK, (HotelDTO) response.getData()  );  
     }
 
+    /*Primi k hotel della città secondo il rank, in un solo round trip*/
+    public APIResponse HotelsTop(String City, int k) throws CommunicationException, ResponseParsingException {
+        return HotelsTop(City, k, 0);
+    }
+
+    /*
+     * k hotel della città a partire dalla posizione offset della classifica.
+     * Meno di k hotel indicano la fine della classifica. Un k maggiore di
+     * max_page_size del server restituisce INVALID_PARAMETER
+     */
+    public APIResponse HotelsTop(String City, int k, int offset) throws CommunicationException, ResponseParsingException {
+        Request request = new Request(Method.TOP_K, new String[]{City, Integer.toString(k), Integer.toString(offset)});
+        Response response = exchange(request, true);
+        return response.getStatus() == Response.Status.FAILURE ? 
+                                        new APIResponse(response.getError()) : 
+                                        new APIResponse(Status.OK, (HotelDTO[]) response.getData());
+    }
+
+    /*
+     * k hotel della classifica nazionale a partire dalla posizione offset.
+     * Meno di k hotel indicano la fine della classifica. Un k maggiore di
+     * max_page_size del server restituisce INVALID_PARAMETER
+     */
+    public APIResponse HotelsGlobalTop(int k, int offset) throws CommunicationException, ResponseParsingException {
+        Request request = new Request(Method.GLOBAL_TOP, new String[]{Integer.toString(k), Integer.toString(offset)});
+        Response response = exchange(request, true);
+        return response.getStatus() == Response.Status.FAILURE ? 
+                                        new APIResponse(response.getError()) : 
+                                        new APIResponse(Status.OK, (HotelDTO[]) response.getData());
+    }
+
+    /*
+     * Al più n città e hotel il cui nome inizia con prefix, ordinati per rank.
+     * I dati sono coppie consecutive [città, hotel] (getStringList), con
+     * hotel vuoto per le città. Un n maggiore di max_page_size del server
+     * restituisce INVALID_PARAMETER
+     */
+    public APIResponse Autocomplete(String prefix, int n) throws CommunicationException, ResponseParsingException {
+        Request request = new Request(Method.AUTOCOMPLETE, new String[]{prefix, Integer.toString(n)});
+        Response response = exchange(request, true);
+        return response.getStatus() == Response.Status.FAILURE ? 
+                                        new APIResponse(response.getError()) : 
+                                        new APIResponse(Status.OK, response.getData());
+    }
+
+    /*
+     * Al più n hotel la cui descrizione o i cui servizi contengono i termini
+     * di query, ordinati per punteggio (corrispondenza dei termini e rank).
+     * Un n maggiore di max_page_size del server restituisce INVALID_PARAMETER
+     */
+    public APIResponse SearchText(String query, int n) throws CommunicationException, ResponseParsingException {
+        return searchText(new String[]{query, Integer.toString(n)});
+    }
+
+    //Come SearchText(query, n) ma limitata agli hotel di City
+    public APIResponse SearchText(String query, int n, String City) throws CommunicationException, ResponseParsingException {
+        return searchText(new String[]{query, Integer.toString(n), City});
+    }
+
+    private APIResponse searchText(String[] data) throws CommunicationException, ResponseParsingException {
+        Response response = exchange(new Request(Method.SEARCH_TEXT, data), true);
+        return response.getStatus() == Response.Status.FAILURE ? 
+                                        new APIResponse(response.getError()) : 
+                                        new APIResponse(Status.OK, (HotelDTO[]) response.getData());
+    }
+
+    /*
+     * Al più n hotel di City che offrono tutti i servizi indicati,
+     * in ordine di classifica. Un n maggiore di max_page_size del server
+     * restituisce INVALID_PARAMETER
+     */
+    public APIResponse HotelsFilter(String City, int n, String... services) throws CommunicationException, ResponseParsingException {
+        String[] data = new String[services.length + 2];
+        data[0] = City;
+        data[1] = Integer.toString(n);
+        System.arraycopy(services, 0, data, 2, services.length);
+        Response response = exchange(new Request(Method.SEARCH_FILTER, data), true);
+        return response.getStatus() == Response.Status.FAILURE ? 
+                                        new APIResponse(response.getError()) : 
+                                        new APIResponse(Status.OK, (HotelDTO[]) response.getData());
+    }
+
     public APIResponse HotelPeek(String City, String Hotel) throws CommunicationException, ResponseParsingException {
         /*API call to search for a hotel */
         Request request = new Request(Method.SEARCH_HOTEL, new String[]{City,Hotel});
-        sendRequest(request);
-        Response response = getResponse();
+        Response response = exchange(request, true);
         return response.getStatus() == Response.Status.FAILURE ? 
                                         new APIResponse(response.getError()) : 
                                         new APIResponse(Status.OK);  
@@ -222,12 +504,20 @@ public class HotelierAPI {
 
     //public APIResponse HotelsFetch
     public APIResponse HotelsFetch(String City) throws CommunicationException, ResponseParsingException, NullPointerException {
+        return fetch(City, new Request(Method.SEARCH_ALL, City));
+    }
+
+    /*Come HotelsFetch(City) ma con pagine di pageSize hotel (il server applica un limite massimo)*/
+    public APIResponse HotelsFetch(String City, int pageSize) throws CommunicationException, ResponseParsingException, NullPointerException {
+        if(City == null) throw new NullPointerException("City is null");
+        return fetch(City, new Request(Method.SEARCH_ALL, new String[]{City, Integer.toString(pageSize)}));
+    }
+
+    private APIResponse fetch(String City, Request request) throws CommunicationException, ResponseParsingException {
         if(City != null) fetch_init = true;
         
-        /*API call to fetch hotels */
-        Request request = new Request(Method.SEARCH_ALL, City);
-        sendRequest(request);
-        Response response = getResponse();
+        /*API call to fetch hotels: le pagine successive dipendono dalla connessione */
+        Response response = exchange(request, City != null);
         APIResponse apiResponse = new APIResponse(Status.OK);
         Response.Status res = response.getStatus();
         if(res == Response.Status.FAILURE){
@@ -253,7 +543,14 @@ public class HotelierAPI {
     }
 
     public APIResponse HotelsFetchAll(String City) throws CommunicationException, ResponseParsingException, NullPointerException {
-        APIResponse response = HotelsFetch(City);
+        return fetchAll(HotelsFetch(City));
+    }
+
+    public APIResponse HotelsFetchAll(String City, int pageSize) throws CommunicationException, ResponseParsingException, NullPointerException {
+        return fetchAll(HotelsFetch(City, pageSize));
+    }
+
+    private APIResponse fetchAll(APIResponse response) {
         if(response.getStatus() == Status.NO_SUCH_CITY) return response;
         ArrayList<HotelDTO> hotels = new ArrayList<HotelDTO>();
         boolean success = false;
@@ -19,6 +19,7 @@ public enum Status {
         SCORE_PRICE             (Error.SCORE_PRICE.getMnemonic()),
         SCORE_SERVICE           (Error.SCORE_SERVICE.getMnemonic()),
         SERVER_ERROR            ("An error occurred on the server"),
+        SERVER_BUSY             (Error.SERVER_BUSY.getMnemonic()),
         FETCH_DONE              ("[HotelsFetch(String City ) | HotelsFetch()] Fetched all Hotels"),
         FETCH_LEFT              ("[HotelsFetch(String City ) | HotelsFetch()] Hotels left to fetch"),
         FETCH_PARTIAL           ("[HotelsFetchAll(String City)] Partial fetch of Hotels due to Server Error");
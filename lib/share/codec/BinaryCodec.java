@@ -0,0 +1,400 @@
+package lib.share.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import lib.share.packet.Request;
+import lib.share.packet.Request.Method;
+import lib.share.packet.Response;
+import lib.share.packet.Response.Error;
+import lib.share.packet.Response.Status;
+import lib.share.struct.HotelDTO;
+import lib.share.struct.ReviewEntry;
+import lib.share.struct.Score;
+
+/*
+ * Codifica binaria di Request e Response
+ *
+ * Alternativa compatta al JSON: la connessione usa questa codifica se
+ * il primo pacchetto inviato dal client inizia con MAGIC (un pacchetto
+ * JSON inizia sempre con '{'). Il byte MAGIC compare solo nel primo
+ * pacchetto, poi entrambi i lati usano la codifica binaria.
+ *
+ * Formato (big endian):
+ *  Request     [method: byte] [payload]
+ *  Response    [status: byte] [error: byte] [payload]
+ *  payload     [tag: byte] seguito dal valore del tipo indicato (T_*)
+ *  String      [lunghezza: varint] [byte UTF-8]
+ *  Score       5 double (Global, Position, Cleaning, Service, Price)
+ *  HotelDTO    name, description, city, phone, services, rank,
+ *              rating, rank_position
+ *  ReviewEntry city, hotel, score
+ *  Error[]     [lunghezza: varint] [ordinale: byte]...
+ *
+ * Enum come ordinali, stringhe e array nulli con lunghezza -1
+ */
+public class BinaryCodec {
+
+    public static final byte MAGIC = (byte) 0xB1;
+
+    // Tipi del payload
+    private static final byte T_NULL            = 0;
+    private static final byte T_STRING          = 1;
+    private static final byte T_STRING_ARRAY    = 2;
+    private static final byte T_SCORE           = 3;
+    private static final byte T_HOTEL           = 4;
+    private static final byte T_HOTEL_ARRAY     = 5;
+    private static final byte T_LONG            = 6;
+    private static final byte T_REVIEW_ARRAY    = 7;
+    private static final byte T_ERROR_ARRAY     = 8;
+
+    private static final Method[]   METHODS     = Method.values();
+    private static final Status[]   STATUSES    = Status.values();
+    private static final Error[]    ERRORS      = Error.values();
+
+    /*
+     * Destinazione dei byte codificati. Implementata dal FrameWriter del
+     * server (buffer del pool) e da ArraySink per il client
+     */
+    public interface Sink {
+        void putByte(int b);
+        void putInt(int v);
+        void putLong(long v);
+        void putDouble(double v);
+        void putBytes(byte[] bytes);
+    }
+
+    /*
+     * Sink su un array che cresce al bisogno
+     */
+    public static class ArraySink implements Sink {
+        private ByteBuffer buffer;
+
+        public ArraySink(int sizeHint) {
+            this.buffer = ByteBuffer.allocate(Math.max(sizeHint, 16));
+        }
+
+        private void ensure(int n) {
+            if(buffer.remaining() >= n) return;
+            buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), Math.max(buffer.capacity() * 2, buffer.position() + n)))
+                               .position(buffer.position());
+        }
+
+        public void putByte(int b)          { ensure(1); buffer.put((byte) b); }
+        public void putInt(int v)           { ensure(4); buffer.putInt(v); }
+        public void putLong(long v)         { ensure(8); buffer.putLong(v); }
+        public void putDouble(double v)     { ensure(8); buffer.putDouble(v); }
+        public void putBytes(byte[] bytes)  { ensure(bytes.length); buffer.put(bytes); }
+
+        public int size() {
+            return buffer.position();
+        }
+
+        //byte scritti fino a questo momento
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /*
+     * Request
+     */
+
+    public static void writeRequest(Sink out, Request request) {
+        out.putByte(request.getMethod().ordinal());
+        writePayload(out, request.getData());
+    }
+
+    public static Request readRequest(ByteBuffer in) throws IOException {
+        try{
+            Method method = METHODS[in.get()];
+            //i tipi usati solo nelle risposte non sono accettati dal server
+            byte tag = in.get(in.position());
+            if(tag == T_HOTEL || tag == T_HOTEL_ARRAY || tag == T_LONG || tag == T_ERROR_ARRAY)
+                throw new IOException("Tipo di payload non valido in una richiesta: " + tag);
+            return new Request(method, readPayload(in));
+        } catch(RuntimeException e){
+            throw new IOException("Richiesta binaria non valida", e);
+        }
+    }
+
+    //legge il metodo della richiesta senza consumare il buffer (null se non valido)
+    public static Method peekMethod(ByteBuffer in) {
+        if(!in.hasRemaining()) return null;
+        int ordinal = in.get(in.position());
+        return (ordinal >= 0 && ordinal < METHODS.length) ? METHODS[ordinal] : null;
+    }
+
+    /*
+     * Response
+     */
+
+    public static void writeResponse(Sink out, Response response) {
+        out.putByte(response.getStatus().ordinal());
+        out.putByte(response.getError().ordinal());
+        writePayload(out, response.getData());
+    }
+
+    public static Response readResponse(ByteBuffer in) throws IOException {
+        try{
+            Status status   = STATUSES[in.get()];
+            Error error     = ERRORS[in.get()];
+            return new Response(status, error, readPayload(in));
+        } catch(RuntimeException e){
+            throw new IOException("Risposta binaria non valida", e);
+        }
+    }
+
+    /*
+     * Risposte composte da hotel già codificati con encodeHotel (cache
+     * del server). Il risultato è identico a quello di writeResponse
+     */
+
+    public static byte[] encodeHotel(HotelDTO hotel) {
+        ArraySink out = new ArraySink(256);
+        writeHotel(out, hotel);
+        return out.toByteArray();
+    }
+
+    public static void writeHotelResponse(Sink out, Status status, Error error, byte[] hotel) {
+        out.putByte(status.ordinal());
+        out.putByte(error.ordinal());
+        out.putByte(T_HOTEL);
+        out.putBytes(hotel);
+    }
+
+    //elementi nulli del batch come null
+    public static void writeHotelArrayResponse(Sink out, Status status, Error error, byte[][] hotels) {
+        out.putByte(status.ordinal());
+        out.putByte(error.ordinal());
+        out.putByte(T_HOTEL_ARRAY);
+        writeVarint(out, hotels.length);
+        for(byte[] hotel : hotels){
+            out.putByte(hotel != null ? 1 : 0);
+            if(hotel != null) out.putBytes(hotel);
+        }
+    }
+
+    /*
+     * Payload
+     */
+
+    private static void writePayload(Sink out, Object data) {
+        if(data == null){
+            out.putByte(T_NULL);
+        } else if(data instanceof String){
+            out.putByte(T_STRING);
+            writeString(out, (String) data);
+        } else if(data instanceof String[]){
+            out.putByte(T_STRING_ARRAY);
+            writeStrings(out, (String[]) data);
+        } else if(data instanceof Score){
+            out.putByte(T_SCORE);
+            writeScore(out, (Score) data);
+        } else if(data instanceof HotelDTO){
+            out.putByte(T_HOTEL);
+            writeHotel(out, (HotelDTO) data);
+        } else if(data instanceof HotelDTO[]){
+            HotelDTO[] hotels = (HotelDTO[]) data;
+            out.putByte(T_HOTEL_ARRAY);
+            writeVarint(out, hotels.length);
+            for(HotelDTO hotel : hotels){
+                //i batch possono contenere elementi nulli
+                out.putByte(hotel != null ? 1 : 0);
+                if(hotel != null) writeHotel(out, hotel);
+            }
+        } else if(data instanceof ReviewEntry[]){
+            ReviewEntry[] reviews = (ReviewEntry[]) data;
+            out.putByte(T_REVIEW_ARRAY);
+            writeVarint(out, reviews.length);
+            for(ReviewEntry review : reviews){
+                out.putByte(review != null ? 1 : 0);
+                if(review != null) writeReview(out, review);
+            }
+        } else if(data instanceof Error[]){
+            Error[] errors = (Error[]) data;
+            out.putByte(T_ERROR_ARRAY);
+            writeVarint(out, errors.length);
+            for(Error error : errors) out.putByte(error.ordinal());
+        } else if(data instanceof Long || data instanceof Integer){
+            out.putByte(T_LONG);
+            out.putLong(((Number) data).longValue());
+        } else {
+            throw new IllegalArgumentException("Tipo di payload non supportato: " + data.getClass().getName());
+        }
+    }
+
+    private static Object readPayload(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        switch(tag){
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readString(in);
+            case T_STRING_ARRAY:
+                return readStrings(in);
+            case T_SCORE:
+                return readScore(in);
+            case T_HOTEL:
+                return readHotel(in);
+            case T_HOTEL_ARRAY:
+                HotelDTO[] hotels = new HotelDTO[readLength(in)];
+                for(int i = 0; i < hotels.length; i++){
+                    if(in.get() != 0) hotels[i] = readHotel(in);
+                }
+                return hotels;
+            case T_LONG:
+                return in.getLong();
+            case T_REVIEW_ARRAY:
+                ReviewEntry[] reviews = new ReviewEntry[readLength(in)];
+                for(int i = 0; i < reviews.length; i++){
+                    if(in.get() != 0) reviews[i] = readReview(in);
+                }
+                return reviews;
+            case T_ERROR_ARRAY:
+                Error[] errors = new Error[readLength(in)];
+                for(int i = 0; i < errors.length; i++){
+                    int ordinal = in.get();
+                    if(ordinal < 0 || ordinal >= ERRORS.length)
+                        throw new IOException("Errore sconosciuto: " + ordinal);
+                    errors[i] = ERRORS[ordinal];
+                }
+                return errors;
+            default:
+                throw new IOException("Tipo di payload sconosciuto: " + tag);
+        }
+    }
+
+    private static void writeScore(Sink out, Score score) {
+        out.putDouble(score.getGlobal());
+        out.putDouble(score.getPosition());
+        out.putDouble(score.getCleaning());
+        out.putDouble(score.getService());
+        out.putDouble(score.getPrice());
+    }
+
+    private static Score readScore(ByteBuffer in) {
+        return new Score(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static void writeHotel(Sink out, HotelDTO hotel) {
+        writeString (out, hotel.name);
+        writeString (out, hotel.description);
+        writeString (out, hotel.city);
+        writeString (out, hotel.phone);
+        writeStrings(out, hotel.services);
+        out.putDouble(hotel.rank);
+        out.putByte (hotel.rating != null ? 1 : 0);
+        if(hotel.rating != null) writeScore(out, hotel.rating);
+        out.putInt  (hotel.rank_position);
+    }
+
+    private static HotelDTO readHotel(ByteBuffer in) throws IOException {
+        String name         = readString(in);
+        String description  = readString(in);
+        String city         = readString(in);
+        String phone        = readString(in);
+        String[] services   = readStrings(in);
+        double rank         = in.getDouble();
+        Score rating        = in.get() != 0 ? readScore(in) : null;
+        int rank_position   = in.getInt();
+        return new HotelDTO(name, description, city, phone, services, rank, rating, rank_position);
+    }
+
+    private static void writeReview(Sink out, ReviewEntry review) {
+        writeString (out, review.city);
+        writeString (out, review.hotel);
+        out.putByte (review.score != null ? 1 : 0);
+        if(review.score != null) writeScore(out, review.score);
+    }
+
+    private static ReviewEntry readReview(ByteBuffer in) throws IOException {
+        String city     = readString(in);
+        String hotel    = readString(in);
+        Score score     = in.get() != 0 ? readScore(in) : null;
+        return new ReviewEntry(city, hotel, score);
+    }
+
+    //lunghezza di un array i cui elementi occupano almeno un byte
+    private static int readLength(ByteBuffer in) throws IOException {
+        int length = readVarint(in);
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Lunghezza dell'array non valida: " + length);
+        return length;
+    }
+
+    /*
+     * Stringhe UTF-8 precedute dalla lunghezza (varint, -1 = null)
+     */
+
+    private static void writeString(Sink out, String str) {
+        if(str == null){
+            writeVarint(out, -1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.putBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readVarint(in);
+        if(length == -1) return null;
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Lunghezza della stringa non valida: " + length);
+        if(in.hasArray()){
+            String str = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return str;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(Sink out, String[] strings) {
+        if(strings == null){
+            writeVarint(out, -1);
+            return;
+        }
+        writeVarint(out, strings.length);
+        for(String str : strings) writeString(out, str);
+    }
+
+    private static String[] readStrings(ByteBuffer in) throws IOException {
+        int length = readVarint(in);
+        if(length == -1) return null;
+        //ogni stringa occupa almeno un byte
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Lunghezza dell'array non valida: " + length);
+        String[] strings = new String[length];
+        for(int i = 0; i < length; i++) strings[i] = readString(in);
+        return strings;
+    }
+
+    /*
+     * Interi a lunghezza variabile: 7 bit per byte, il bit alto indica
+     * che segue un altro byte. -1 viene codificato come 0 e n come n + 1
+     */
+
+    private static void writeVarint(Sink out, int value) {
+        int v = value + 1;
+        while((v & ~0x7F) != 0){
+            out.putByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.putByte(v);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value - 1;
+        }
+        throw new IOException("Varint non valido");
+    }
+}
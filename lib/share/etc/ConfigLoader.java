@@ -34,11 +34,11 @@ public class ConfigLoader{
     }
 
     public String getStringAttribute(String key, String defaultValue){
-        String attr = getStringAttribute(key).trim();
+        String attr = getStringAttribute(key);
         if(attr == null){
-            attr = defaultValue;
+            return defaultValue;
         }
-        return attr;
+        return attr.trim();
     }
 
     /**
@@ -17,7 +17,15 @@ public class Request {
         SEARCH_HOTEL,
         SEARCH_ALL,
         REVIEW,
-        SHOW_BADGE
+        SHOW_BADGE,
+        TOP_K,
+        AUTOCOMPLETE,
+        SEARCH_TEXT,
+        SEARCH_FILTER,
+        GLOBAL_TOP,
+        REVIEW_BATCH,
+        LOGIN_FAST,
+        RESUME
     }
 
     private Method method;
@@ -40,9 +40,11 @@ public class Response {
         SCORE_PRICE         ("The price score needs to be between "     + Score.min + " and " + Score.max),
         SCORE_SERVICE       ("The service score needs to be between "   + Score.min + " and " + Score.max),
         INVALID_PARAMETER   ("Parameter invalid"),
-        SERVER_ERROR        ("An error occurred on the server. Your request could not be processed.");
+        SERVER_ERROR        ("An error occurred on the server. Your request could not be processed."),
+        SERVER_BUSY         ("The server is overloaded. Retry after the suggested delay (ms)", true);
 
         private final String mnemonic;
+        private final boolean payload;  // l'errore trasporta un payload (es. retry-after)
 
         /**
          * Constructs an Error with a specific mnemonic message.
@@ -50,7 +52,27 @@ public class Response {
          * @param mnemonic The mnemonic message associated with the error.
          */
         Error(String mnemonic) {
+            this(mnemonic, false);
+        }
+
+        /**
+         * Constructs an Error that may carry a payload.
+         *
+         * @param mnemonic The mnemonic message associated with the error.
+         * @param payload Whether the response keeps its payload with this error.
+         */
+        Error(String mnemonic, boolean payload) {
             this.mnemonic = mnemonic;
+            this.payload = payload;
+        }
+
+        /**
+         * Returns whether a response with this error keeps its payload.
+         *
+         * @return true if the payload is preserved.
+         */
+        public boolean hasPayload() {
+            return payload;
         }
 
         /**
@@ -81,7 +103,7 @@ public class Response {
 
         this.status = status;
         this.error = error;
-        this.payload = (error != Error.NO_ERR) ? null : Data;
+        this.payload = (error != Error.NO_ERR && !error.hasPayload()) ? null : Data;
     }
 
     public Response(Status status) {
@@ -96,6 +118,10 @@ public class Response {
         this(Status.FAILURE, error, null);
     }
 
+    public Response(Error error, Object Data) {
+        this(Status.FAILURE, error, Data);
+    }
+
     public void update(Status status, Error error, Object Data) {
         if (status != Status.FAILURE && error == Error.NO_ERR) {
             throw new IllegalArgumentException("Response Status.FAIL and no error set");
@@ -103,7 +129,7 @@ public class Response {
 
         this.status = status;
         this.error = error;
-        this.payload = (error != Error.NO_ERR) ? null : Data;
+        this.payload = (error != Error.NO_ERR && !error.hasPayload()) ? null : Data;
     }
 
     public void update(Status status, Object Data) {
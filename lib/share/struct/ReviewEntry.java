@@ -0,0 +1,24 @@
+package lib.share.struct;
+
+/*
+ * Recensione di un lotto REVIEW_BATCH: hotel identificato da città e nome
+ * e relativo punteggio. Condivisa da client e server
+ */
+
+public class ReviewEntry{
+
+    public String      city;
+    public String      hotel;
+    public Score       score;
+
+    public ReviewEntry (String city, String hotel, Score score) {
+        this.city   = city;
+        this.hotel  = hotel;
+        this.score  = score;
+    }
+
+    @Override
+    public String toString() {
+        return city + " / " + hotel + (score != null ? "\n" + score.toString() : "");
+    }
+}
@@ -3,6 +3,7 @@ package lib.share.typeAdapter;
 import java.io.IOException;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -12,6 +13,7 @@ import com.google.gson.stream.JsonWriter;
 
 import lib.share.packet.Request;
 import lib.share.packet.Request.Method;
+import lib.share.struct.ReviewEntry;
 import lib.share.struct.Score;
 
 public class RequestTypeAdapter extends TypeAdapter<Object> {
@@ -35,13 +37,23 @@ public class RequestTypeAdapter extends TypeAdapter<Object> {
             if(name.equals("method")){
                 method = Method.valueOf(in.nextString());
             } 
-            // Data come array di due stringhe
+            // Data come array di stringhe
             else if(name.equals("data")){
                 JsonElement element = JsonParser.parseReader(in);
-                if(element.isJsonArray()){
-                    String[] dataLocal = new String[2];
-                    dataLocal[0] = element.getAsJsonArray().get(0).getAsString();
-                    dataLocal[1] = element.getAsJsonArray().get(1).getAsString();
+                //array di oggetti: recensioni di REVIEW_BATCH
+                if(element.isJsonArray() && element.getAsJsonArray().size() > 0
+                        && !element.getAsJsonArray().get(0).isJsonPrimitive()){
+                    try{
+                        data = processReviews(element.getAsJsonArray());
+                    } catch(Exception e){
+                        throw new IOException(e);
+                    }
+                }
+                else if(element.isJsonArray()){
+                    JsonArray array = element.getAsJsonArray();
+                    String[] dataLocal = new String[array.size()];
+                    for(int i = 0; i < dataLocal.length; i++)
+                        dataLocal[i] = array.get(i).getAsString();
                     data = dataLocal;
                 }else if(element.isJsonObject()){
                     //Oggetto serializzato come Score
@@ -70,6 +82,24 @@ public class RequestTypeAdapter extends TypeAdapter<Object> {
         return new Request(method, data);
     }
 
+    //gli elementi nulli o senza punteggio restano tali e vengono scartati dal server
+    public ReviewEntry[] processReviews(JsonArray array) throws Exception{
+        ReviewEntry[] reviews = new ReviewEntry[array.size()];
+        for(int i = 0; i < reviews.length; i++){
+            JsonElement item = array.get(i);
+            if(!item.isJsonObject()) continue;
+            JsonObject review   = item.getAsJsonObject();
+            JsonElement city    = review.get("city");
+            JsonElement hotel   = review.get("hotel");
+            JsonElement score   = review.get("score");
+            reviews[i] = new ReviewEntry(
+                            city  != null && !city.isJsonNull()  ? city.getAsString()   : null,
+                            hotel != null && !hotel.isJsonNull() ? hotel.getAsString()  : null,
+                            score != null && score.isJsonObject() ? processScore(score) : null);
+        }
+        return reviews;
+    }
+
     public Score processScore(JsonElement element) throws Exception{
         
         JsonObject JsonScore = element.getAsJsonObject();
@@ -20,6 +20,7 @@ public class ResponseTypeAdapter extends TypeAdapter<Object> {
 
     private Type HotelDTOT      = new TypeToken<HotelDTO>(){}.getType();
     private Type HotelDTOListT  = new TypeToken<HotelDTO[]>(){}.getType();
+    private Type StringListT    = new TypeToken<String[]>(){}.getType();
     
     @Override
     public void write(JsonWriter out, Object object) throws IOException {
@@ -52,6 +53,10 @@ public class ResponseTypeAdapter extends TypeAdapter<Object> {
                     JsonElement element = JsonParser.parseReader(in);
                     //caso stringa
                     if(element.isJsonPrimitive())data = element.getAsString();
+                    //caso array di stringhe (il primo elemento non è un oggetto)
+                    else if (element.isJsonArray() && element.getAsJsonArray().size() > 0
+                                && element.getAsJsonArray().get(0).isJsonPrimitive())
+                        data = gson.fromJson(element, StringListT);
                     //caso array di Hotel
                     else if (element.isJsonArray()) data = gson.fromJson(element, HotelDTOListT);
                     //caso oggetto Hotel
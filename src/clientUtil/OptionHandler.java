@@ -475,6 +475,9 @@ public static class SearchHotel extends BaseMenu {
     }
 
     public static class FetchHotels extends BaseMenu{
+        private static final int PAGE_SIZE = 10;   //hotel richiesti per ogni pagina
+        //pagina effettiva, ridotta se il server ha un max_page_size minore
+        private int pageSize = PAGE_SIZE;
         private final StringBuilder city = new StringBuilder();
         private final StringBuilder result = new StringBuilder();
 
@@ -505,31 +508,14 @@ public static class SearchHotel extends BaseMenu {
             int list_index = 0;
             boolean searchDone = false;
             ArrayList<HotelDTO> hotels = new ArrayList<>();
-            if(city.length() == 0){
+            String name = city.toString();
+            if(name.length() == 0){
                 message = Ansi.RED + "Please fill in all fields" + Ansi.RESET;
                 return;
             } else {
-                APIResponse response = null;
-                try{
-                    response = entryPoint.HotelsFetch(city.toString());
-                } catch (Exception e) {
-                    Terminate(Ansi.RED + "Fetch failed: " + getStackTraceAsString(e) + Ansi.RESET);
-                }
-                if(response.getStatus() != Status.FETCH_DONE && response.getStatus() != Status.FETCH_LEFT){
-                    message = Ansi.RED + "Fetch failed: " + response.getMessage() + Ansi.RESET;
-                    return;
-                } else {
-
-                    if(response.getStatus() == Status.FETCH_DONE){
-                        searchDone = true;
-                    }
-                    for(HotelDTO hotel : response.getHotelList()){
-                        hotels.add(hotel);
-                    }
-                    
-
-                }
-
+                //prima pagina in un solo round trip
+                searchDone = FetchAdd(name, hotels);
+                if(hotels.isEmpty()) return;
             }
 
             while(true){
@@ -545,14 +531,10 @@ public static class SearchHotel extends BaseMenu {
                     case "RIGHT": case "DOWN": case "TAB":{
                         if(list_index < hotels.size()-1) list_index += 1;
                         else{
-                            if(searchDone){
-                                message = Ansi.BLUE + "Hotels Finished" + Ansi.RESET;
-                                searchDone = true;
-                            } 
-                            else{
-                                searchDone = FetchAdd(hotels);
-                                list_index++;
-                            }
+                            if(!searchDone) searchDone = FetchAdd(name, hotels);
+                            //la pagina successiva può essere vuota
+                            if(list_index < hotels.size()-1) list_index++;
+                            else message = Ansi.BLUE + "Hotels Finished" + Ansi.RESET;
                         }
                     } break;
                 }
@@ -573,22 +555,31 @@ public static class SearchHotel extends BaseMenu {
 
         }
 
-        private boolean FetchAdd(ArrayList<HotelDTO> list){
+        /*
+         * Aggiunge alla lista la pagina successiva della classifica (TOP_K).
+         * Restituisce true se la classifica è terminata
+         */
+        private boolean FetchAdd(String name, ArrayList<HotelDTO> list){
             APIResponse response = null;
                 try{
-                    response = entryPoint.HotelsFetch();
+                    response = entryPoint.HotelsTop(name, pageSize, list.size());
+                    //pagina oltre max_page_size del server: si riprova dimezzandola
+                    while(response.getStatus() == Status.INVALID_PARAMETER && pageSize > 1){
+                        pageSize /= 2;
+                        response = entryPoint.HotelsTop(name, pageSize, list.size());
+                    }
                 } catch (Exception e) {
                     Terminate(Ansi.RED + "Fetch failed: " + getStackTraceAsString(e) + Ansi.RESET);
                 }
-                if(response.getStatus() != Status.FETCH_DONE && response.getStatus() != Status.FETCH_LEFT){
+                if(response.getStatus() != Status.OK){
                     message = Ansi.RED + "Fetch failed: " + response.getMessage() + Ansi.RESET;
-                    Terminate(message);
-                } else {
-                    for(HotelDTO hotel : response.getHotelList()){
-                        list.add(hotel);
-                    }
+                    return true;
+                }
+                HotelDTO[] page = response.getHotelList();
+                for(HotelDTO hotel : page){
+                    list.add(hotel);
                 }
-            return response.getStatus() == Status.FETCH_DONE;
+            return page.length < pageSize;
 
         }
 
@@ -0,0 +1,73 @@
+package serverUtil;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Controllo di ammissione delle richieste
+ *
+ * Conta le richieste ricevute e non ancora eseguite. Quando superano
+ * la soglia alta (admission_high) il server entra in modalità di
+ * shedding: i reactor smettono di leggere e le richieste costose
+ * ricevono SERVER_BUSY. Si esce dalla modalità quando il numero scende
+ * sotto la soglia bassa (admission_low)
+ */
+public class Admission {
+
+    private static final int            HIGH;
+    private static final int            LOW;
+    private static final long           RETRY_AFTER;    //attesa suggerita ai client (ms)
+
+    private static final AtomicInteger  Backlog     = new AtomicInteger(0);
+    private static final AtomicBoolean  Shedding    = new AtomicBoolean(false);
+
+    // Metriche
+    private static final LongAdder      Shed        = Metrics.counter("admission.shed");
+    private static final LongAdder      Rejected    = Metrics.counter("admission.rejected");
+    private static final LongAdder      Overloads   = Metrics.counter("admission.overloads");
+
+    static{
+        HIGH        = ServerContext.ADMISSION_HIGH;
+        LOW         = ServerContext.ADMISSION_LOW;
+        RETRY_AFTER = ServerContext.RETRY_AFTER;
+    }
+
+    //invocato dal reactor per ogni richiesta accodata
+    protected static void enter(){
+        if(Backlog.incrementAndGet() >= HIGH && HIGH > 0 && Shedding.compareAndSet(false, true))
+            Overloads.increment();
+    }
+
+    /*
+     * Invocato per ogni richiesta eseguita o scartata. Al rientro sotto
+     * la soglia bassa i reactor vengono risvegliati per riprendere le letture
+     */
+    protected static void exit(){
+        if(Backlog.decrementAndGet() <= LOW && Shedding.get() && Shedding.compareAndSet(true, false))
+            ServerMain.wakeupReactors();
+    }
+
+    //true se il server è sopra la soglia alta e non è ancora sceso sotto la bassa
+    public static boolean isShedding(){
+        return Shedding.get();
+    }
+
+    public static long retryAfter(){
+        return RETRY_AFTER;
+    }
+
+    public static int getBacklog(){
+        return Backlog.get();
+    }
+
+    //richiesta scartata durante lo shedding
+    protected static void shed(){
+        Shed.increment();
+    }
+
+    //richieste respinte perché il MainPool è saturo
+    protected static void rejected(int count){
+        Rejected.add(count);
+    }
+}
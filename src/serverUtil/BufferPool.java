@@ -1,40 +1,154 @@
 package serverUtil;
 
-import java.util.LinkedHashMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
 
-public class BufferPool extends LinkedHashMap<Integer, ByteBuffer> {
-    private final int tresHold; // Massima differenza tra la dimensione del buffer richiesta e quella effettiva
-    private final int maxSize;  // Massimo numero di buffer da mantenere in memoria
+/*
+ * Allocatore di buffer thread-safe a classi di dimensione
+ *
+ * Le richieste vengono arrotondate alla potenza di due successiva
+ * (a partire da minSize). Ogni classe ha uno slab globale limitato
+ * e ogni thread mantiene una piccola cache locale, cosi che a regime
+ * la get/release non alloca nuovi buffer né contende lock.
+ *
+ * I virtual thread (pool_mode = virtual) vivono per un solo task: una
+ * cache locale andrebbe persa a ogni richiesta insieme ai suoi buffer,
+ * quindi usano direttamente lo slab.
+ *
+ * Un buffer appartiene al chiamante fino alla release: lo stesso
+ * buffer non viene mai consegnato a due connessioni.
+ */
+public class BufferPool {
 
-    public BufferPool(int tresHold, int maxSize) {
-        super(maxSize, 0.75f, true); // Inizializzata con modalità di accesso
-        this.tresHold = tresHold;
-        this.maxSize = maxSize;
+    //cache locale al thread: una pila per ogni classe di dimensione
+    private static final class ThreadCache {
+        private final ByteBuffer[][]    stacks;
+        private final int[]             sizes;
+
+        ThreadCache(int classes, int depth) {
+            stacks  = new ByteBuffer[classes][depth];
+            sizes   = new int[classes];
+        }
     }
 
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<Integer, ByteBuffer> eldest) {
-        return size() > maxSize;
+    //Thread.isVirtual, null se la JVM non ha virtual thread (prima di Java 21)
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    private final int       minShift;   // log2 della classe più piccola
+    private final int       maxShift;   // log2 della classe più grande
+    private final int       cacheDepth; // buffer per classe nella cache del thread
+    private final boolean   direct;     // buffer allocati fuori heap
+
+    private final ArrayBlockingQueue<ByteBuffer>[]  slabs;
+    private final ThreadLocal<ThreadCache>          caches;
+
+    /**
+     * @param minSize    dimensione della classe più piccola
+     * @param maxSize    dimensione della classe più grande (oltre si alloca senza pooling)
+     * @param slabSize   numero massimo di buffer mantenuti per classe
+     * @param cacheDepth numero massimo di buffer per classe nella cache di ogni thread
+     * @param direct     se true i buffer vengono allocati con allocateDirect
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minSize, int maxSize, int slabSize, int cacheDepth, boolean direct) {
+        this.minShift   = shiftFor(Math.max(minSize, 1));
+        this.maxShift   = Math.max(shiftFor(Math.max(maxSize, 1)), minShift);
+        this.cacheDepth = Math.max(cacheDepth, 0);
+        this.direct     = direct;
+
+        int classes = maxShift - minShift + 1;
+        slabs = (ArrayBlockingQueue<ByteBuffer>[]) new ArrayBlockingQueue<?>[classes];
+        for(int i = 0; i < classes; i++)
+            slabs[i] = new ArrayBlockingQueue<>(Math.max(slabSize, 1));
+        caches = ThreadLocal.withInitial(() -> new ThreadCache(classes, this.cacheDepth));
     }
 
-    @Override
-    public ByteBuffer get(Object key) {
-        Integer keyInteger = (Integer) key;
-        ByteBuffer buffer = super.get(keyInteger);
-        if (buffer == null) {
-            //arrotonda la dimensione del buffer richiesto al threshold per eccesso
-            int roundedSize = roundUpSize(keyInteger);
-            buffer = ByteBuffer.allocate(roundedSize);
-            //inserisce nella mappa per markare il timestamp di utilizzo
-            put(keyInteger, buffer);
+    /*
+     * Restituisce un buffer con capacità >= size pronto per la scrittura.
+     * Il buffer va restituito con release()
+     */
+    public ByteBuffer get(int size) {
+        int cls = classOf(size);
+        //richiesta oltre la classe massima: buffer non gestito dal pool
+        if(cls < 0) return allocate(size);
+
+        ThreadCache cache = cache();
+        ByteBuffer buffer;
+        if(cache != null && cache.sizes[cls] > 0){
+            int top = --cache.sizes[cls];
+            buffer = cache.stacks[cls][top];
+            cache.stacks[cls][top] = null;
+        } else {
+            buffer = slabs[cls].poll();
+            if(buffer == null) buffer = allocate(1 << (cls + minShift));
         }
         buffer.clear();
         return buffer;
     }
 
-    private int roundUpSize(int size) {
-        return ((size + tresHold - 1) / tresHold) * tresHold;
+    /*
+     * Restituisce un buffer al pool. Il chiamante non deve più
+     * utilizzarlo dopo l'invocazione
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer == null || buffer.isDirect() != direct) return;
+        int capacity = buffer.capacity();
+        //solo i buffer allocati dal pool vi rientrano
+        if(Integer.bitCount(capacity) != 1) return;
+        int cls = shiftFor(capacity) - minShift;
+        if(cls < 0 || cls >= slabs.length) return;
+
+        buffer.clear();
+        ThreadCache cache = cache();
+        if(cache != null && cache.sizes[cls] < cacheDepth){
+            cache.stacks[cls][cache.sizes[cls]++] = buffer;
+            return;
+        }
+        //se lo slab è pieno il buffer viene lasciato al GC
+        slabs[cls].offer(buffer);
     }
-    
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    //cache del thread corrente, null per i virtual thread
+    private ThreadCache cache() {
+        if(IS_VIRTUAL != null){
+            try{
+                if((boolean) IS_VIRTUAL.invokeExact(Thread.currentThread())) return null;
+            } catch(Throwable e){
+                throw new IllegalStateException(e);
+            }
+        }
+        return caches.get();
+    }
+
+    private static MethodHandle isVirtualHandle() {
+        try{
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch(ReflectiveOperationException e){
+            return null;
+        }
+    }
+
+    //indice della classe per una richiesta, -1 se oltre la classe massima
+    private int classOf(int size) {
+        int shift = shiftFor(Math.max(size, 1));
+        if(shift > maxShift) return -1;
+        return Math.max(shift - minShift, 0);
+    }
+
+    //log2 della potenza di due >= size
+    private static int shiftFor(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
 }
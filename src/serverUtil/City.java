@@ -0,0 +1,64 @@
+package serverUtil;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Hotel di una città
+ *
+ * Contiene un indice immutabile dal nome normalizzato all'hotel, costruito
+ * al caricamento, e la classifica corrente (RankSnapshot) pubblicata dal
+ * RankManager. Nessuna delle due richiede lock: gli hotel di una città non
+ * cambiano durante l'esecuzione del server, cambiano solo rank e punteggi
+ */
+public class City {
+
+    protected final String              Name;       //nome normalizzato
+    private final Map<String, Hotel>    Index;      //nome normalizzato -> hotel
+    private volatile RankSnapshot       Snapshot;   //classifica corrente
+
+    public City(String name, List<Hotel> hotels) {
+        this.Name   = normalize(name);
+        HashMap<String, Hotel> index = new HashMap<>(hotels.size() * 2);
+        Hotel[] ranked = new Hotel[hotels.size()];
+        for(int i = 0; i < ranked.length; i++){
+            Hotel h = hotels.get(i);
+            h.Local = i;
+            h.Owner = this;
+            ranked[i] = h;
+            //a parità di nome vale il primo hotel, come nella scansione della lista
+            index.putIfAbsent(normalize(h.getName()), h);
+        }
+        this.Index      = Map.copyOf(index);
+        //la classifica iniziale è ordinata per rank (a parità vale l'ordine del file)
+        Arrays.sort(ranked, (h1, h2) -> Double.compare(h2.rank, h1.rank));
+        for(int i = 0; i < ranked.length; i++){
+            ranked[i].setRankPosition(i + 1);
+        }
+        this.Snapshot   = new RankSnapshot(0, ranked);
+    }
+
+    //nome usato come chiave per città e hotel
+    public static String normalize(String name) {
+        return name.toLowerCase().trim();
+    }
+
+    /*
+     * Restituisce l'hotel con il nome indicato (già normalizzato)
+     * o null se non presente
+     */
+    public Hotel find(String normalizedName) {
+        return Index.get(normalizedName);
+    }
+
+    public RankSnapshot getSnapshot() {
+        return Snapshot;
+    }
+
+    //invocato solo dal RankManager
+    protected void publish(RankSnapshot snapshot) {
+        this.Snapshot = snapshot;
+    }
+}
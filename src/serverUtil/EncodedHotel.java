@@ -0,0 +1,119 @@
+package serverUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.gson.Gson;
+import lib.share.codec.BinaryCodec;
+import lib.share.packet.Response;
+import lib.share.struct.HotelDTO;
+
+/*
+ * Codifica di un hotel pronta per essere copiata nei pacchetti
+ *
+ * Ogni hotel conserva l'ultima codifica calcolata (Hotel.Encoded), valida
+ * finché la versione dell'hotel non cambia: setRating e gli spostamenti
+ * in classifica incrementano la versione. Le risposte di SEARCH_HOTEL e
+ * SEARCH_ALL vengono composte copiando questi byte invece di clonare e
+ * serializzare ogni volta i DTO.
+ *
+ * Le due codifiche (JSON e binaria) vengono calcolate solo alla prima
+ * richiesta che le usa
+ */
+public class EncodedHotel {
+
+    //stessa configurazione usata da ResponseTypeAdapter per il payload
+    private static final Gson       Gson    = new Gson();
+    private static final byte[]     NULL    = "null".getBytes(StandardCharsets.UTF_8);
+
+    private static final LongAdder  Hits    = Metrics.counter("hotelcache.hit");
+    private static final LongAdder  Misses  = Metrics.counter("hotelcache.miss");
+
+    private final long          Version;
+    private volatile byte[]     Json;
+    private volatile byte[]     Binary;
+
+    private EncodedHotel(long version) {
+        this.Version = version;
+    }
+
+    /*
+     * Scrive la risposta usando le codifiche in cache se il payload è un
+     * hotel (o un batch di hotel) di una classifica pubblicata.
+     * Restituisce false, senza scrivere nulla, negli altri casi
+     */
+    protected static boolean writeResponse(FrameWriter out, Response response, boolean binary) {
+        Object data = response.getData();
+
+        if(data instanceof RankedHotel){
+            byte[] hotel = encoded((RankedHotel) data, binary);
+            if(binary){
+                BinaryCodec.writeHotelResponse(out, response.getStatus(), response.getError(), hotel);
+            } else {
+                writeHeader(out, response);
+                out.writeBytes(hotel);
+                out.write('}');
+            }
+            return true;
+        }
+
+        if(data instanceof HotelDTO[]){
+            HotelDTO[] hotels = (HotelDTO[]) data;
+            byte[][] parts = new byte[hotels.length][];
+            for(int i = 0; i < hotels.length; i++){
+                if(hotels[i] == null) continue;     //i batch possono contenere elementi nulli
+                if(!(hotels[i] instanceof RankedHotel)) return false;
+                parts[i] = encoded((RankedHotel) hotels[i], binary);
+            }
+            if(binary){
+                BinaryCodec.writeHotelArrayResponse(out, response.getStatus(), response.getError(), parts);
+            } else {
+                writeHeader(out, response);
+                out.write('[');
+                for(int i = 0; i < parts.length; i++){
+                    if(i > 0) out.write(',');
+                    out.writeBytes(parts[i] != null ? parts[i] : NULL);
+                }
+                out.write(']');
+                out.write('}');
+            }
+            return true;
+        }
+        return false;
+    }
+
+    //campi della Response nell'ordine in cui li scrive Gson
+    private static void writeHeader(FrameWriter out, Response response) {
+        write(out, "{\"status\":\"");
+        write(out, response.getStatus().name());
+        write(out, "\",\"error\":\"");
+        write(out, response.getError().name());
+        write(out, "\",\"payload\":");
+    }
+
+    private static void write(FrameWriter out, String str) {
+        out.write(str, 0, str.length());
+    }
+
+    //codifica dell'hotel alla versione del DTO, calcolata se assente
+    private static byte[] encoded(RankedHotel dto, boolean binary) {
+        Hotel source        = dto.Source;
+        EncodedHotel cached = source.Encoded;
+        if(cached == null || cached.Version != dto.Version){
+            EncodedHotel fresh = new EncodedHotel(dto.Version);
+            //chi legge una classifica precedente non sostituisce una codifica più recente
+            if(cached == null || cached.Version < dto.Version) source.Encoded = fresh;
+            cached = fresh;
+        }
+
+        byte[] bytes = binary ? cached.Binary : cached.Json;
+        if(bytes != null){
+            Hits.increment();
+            return bytes;
+        }
+        Misses.increment();
+        //più thread possono calcolare la stessa codifica: il risultato è identico
+        if(binary)  cached.Binary   = bytes = BinaryCodec.encodeHotel(dto);
+        else        cached.Json     = bytes = Gson.toJson(dto, HotelDTO.class).getBytes(StandardCharsets.UTF_8);
+        return bytes;
+    }
+}
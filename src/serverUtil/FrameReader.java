@@ -0,0 +1,58 @@
+package serverUtil;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/*
+ * Reader che decodifica UTF-8 direttamente da un ByteBuffer, così che
+ * la richiesta possa essere deserializzata senza costruire una String
+ * con l'intero messaggio.
+ *
+ * Il buffer non viene copiato: deve restare valido finché il reader
+ * è in uso.
+ */
+public class FrameReader extends Reader {
+
+    private final ByteBuffer    buffer;
+    private char                lowSurrogate;   //secondo char di un code point a 4 byte
+
+    public FrameReader(ByteBuffer buffer) {
+        this.buffer         = buffer;
+        this.lowSurrogate   = 0;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if(len == 0) return 0;
+        int n = 0;
+        if(lowSurrogate != 0){
+            cbuf[off + n++] = lowSurrogate;
+            lowSurrogate = 0;
+        }
+        while(n < len && buffer.hasRemaining()){
+            int b = buffer.get() & 0xFF;
+            if(b < 0x80){
+                cbuf[off + n++] = (char) b;
+            } else if((b & 0xE0) == 0xC0 && buffer.remaining() >= 1){
+                cbuf[off + n++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else if((b & 0xF0) == 0xE0 && buffer.remaining() >= 2){
+                int c = ((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6);
+                cbuf[off + n++] = (char) (c | (buffer.get() & 0x3F));
+            } else if((b & 0xF8) == 0xF0 && buffer.remaining() >= 3){
+                int cp = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12);
+                cp |= ((buffer.get() & 0x3F) << 6);
+                cp |= (buffer.get() & 0x3F);
+                cbuf[off + n++] = Character.highSurrogate(cp);
+                if(n < len) cbuf[off + n++] = Character.lowSurrogate(cp);
+                else lowSurrogate = Character.lowSurrogate(cp);
+            } else {
+                //sequenza non valida o troncata
+                cbuf[off + n++] = '�';
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,169 @@
+package serverUtil;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import lib.share.codec.BinaryCodec;
+
+/*
+ * Writer che codifica i caratteri in UTF-8 direttamente in un buffer
+ * del BufferPool, senza passare per String o byte[] intermedi.
+ *
+ * I primi 4 byte del buffer sono riservati alla lunghezza del pacchetto,
+ * che viene scritta da finish() una volta nota. Il buffer cresce
+ * prendendo dal pool la classe di dimensione successiva.
+ *
+ * Implementa anche BinaryCodec.Sink per le connessioni che usano la
+ * codifica binaria.
+ */
+public class FrameWriter extends Writer implements BinaryCodec.Sink {
+
+    private static final int HEADER = Integer.BYTES;
+
+    private final BufferPool    pool;
+    private ByteBuffer          buffer;
+    private char                highSurrogate;  //surrogato alto in attesa del basso
+
+    public FrameWriter(BufferPool pool, int sizeHint) {
+        this.pool           = pool;
+        this.buffer         = pool.get(HEADER + sizeHint);
+        this.highSurrogate  = 0;
+        buffer.position(HEADER);
+    }
+
+    @Override
+    public void write(int c) {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        ensure(len);
+        for(int i = off; i < off + len; i++)
+            encode(cbuf[i]);
+    }
+
+    //evita la copia in un char[] della implementazione di Writer
+    @Override
+    public void write(String str, int off, int len) {
+        ensure(len);
+        for(int i = off; i < off + len; i++)
+            encode(str.charAt(i));
+    }
+
+    /*
+     * Scrive byte già codificati in UTF-8
+     */
+    public void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /*
+     * BinaryCodec.Sink
+     */
+
+    @Override
+    public void putByte(int b) {
+        if(!buffer.hasRemaining()) ensure(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void putInt(int v) {
+        ensure(Integer.BYTES);
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void putLong(long v) {
+        ensure(Long.BYTES);
+        buffer.putLong(v);
+    }
+
+    @Override
+    public void putDouble(double v) {
+        ensure(Double.BYTES);
+        buffer.putDouble(v);
+    }
+
+    @Override
+    public void putBytes(byte[] bytes) {
+        writeBytes(bytes);
+    }
+
+    /*
+     * Scrive la lunghezza del pacchetto nell'header e restituisce il
+     * buffer pronto per la scrittura sul canale. La proprietà del
+     * buffer passa al chiamante che dovrà restituirlo al pool
+     */
+    public ByteBuffer finish() {
+        ByteBuffer frame = buffer;
+        buffer = null;
+        frame.putInt(0, frame.position() - HEADER);
+        frame.flip();
+        return frame;
+    }
+
+    //restituisce il buffer al pool senza produrre il pacchetto
+    public void discard() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    private void encode(char c) {
+        if(highSurrogate != 0){
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if(Character.isLowSurrogate(c)){
+                int cp = Character.toCodePoint(high, c);
+                ensure(4);
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+                return;
+            }
+            //surrogato alto senza basso: sostituito come fa String.getBytes
+            put1('?');
+        }
+
+        if(c < 0x80){
+            put1(c);
+        } else if(c < 0x800){
+            ensure(2);
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if(Character.isHighSurrogate(c)){
+            highSurrogate = c;
+        } else if(Character.isLowSurrogate(c)){
+            put1('?');
+        } else {
+            ensure(3);
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put1(char c) {
+        if(!buffer.hasRemaining()) ensure(1);
+        buffer.put((byte) c);
+    }
+
+    //garantisce almeno n byte liberi, altrimenti passa alla classe successiva
+    private void ensure(int n) {
+        if(buffer.remaining() >= n) return;
+        ByteBuffer larger = pool.get(Math.max(buffer.capacity() * 2, buffer.position() + n));
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,182 @@
+package serverUtil;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Classifica nazionale: i primi Size hotel di tutte le città (GLOBAL_TOP)
+ *
+ * È la fusione (k-way merge) delle classifiche pubblicate delle città.
+ * Per ogni città si ricorda quanti dei suoi primi hotel sono nella
+ * classifica (Taken); il successivo è la "testa" della città in un heap
+ * indicizzato sulle città. A ogni ciclo del RankManager:
+ *  - si tolgono dalla classifica gli hotel delle città ripubblicate,
+ *    che ripartono dal loro primo hotel;
+ *  - si fondono gli hotel rimasti con le teste dell'heap fino a Size;
+ *  - gli hotel rimasti esclusi tornano alle teste delle loro città.
+ * Il costo è O(Size + (città cambiate + Size) log città), indipendente
+ * dal numero totale di hotel.
+ *
+ * Aggiornata solo dal thread del RankManager; i lettori usano l'array
+ * pubblicato con una scrittura volatile
+ */
+public class GlobalRanking {
+
+    private final int                       Size;
+    private final HashMap<City, Integer>    Ids;        //città -> indice
+    private final City[]                    Cities;
+    private final RankSnapshot[]            Snapshots;  //classifica usata per ogni città
+    private final int[]                     Taken;      //hotel della città nella classifica
+    private final int[]                     Reset;      //ultimo ciclo in cui la città è stata ripubblicata
+    private int                             Cycle;
+
+    //heap massimo delle città per rank della testa (Snapshots[c].Entries[Taken[c]])
+    private final int[]                     Heap;
+    private final int[]                     Slot;       //città -> posizione nell'heap, -1 se assente
+    private int                             HeapSize;
+
+    //classifica corrente: hotel e città di provenienza
+    private RankedHotel[]                   Top;
+    private int[]                           Owners;
+    private volatile HotelDTO[]             Published;
+
+    public GlobalRanking(Collection<City> cities, int size) {
+        this.Size       = size;
+        this.Cities     = cities.toArray(new City[0]);
+        this.Ids        = new HashMap<>(Cities.length * 2);
+        this.Snapshots  = new RankSnapshot[Cities.length];
+        this.Taken      = new int[Cities.length];
+        this.Reset      = new int[Cities.length];
+        this.Heap       = new int[Cities.length];
+        this.Slot       = new int[Cities.length];
+        this.Top        = new RankedHotel[0];
+        this.Owners     = new int[0];
+        Arrays.fill(Slot, -1);
+        for(int c = 0; c < Cities.length; c++) Ids.put(Cities[c], c);
+        refresh(Arrays.asList(Cities));
+    }
+
+    /*
+     * Aggiorna la classifica dopo la pubblicazione delle nuove
+     * classifiche delle città indicate
+     */
+    protected void refresh(Collection<City> changed) {
+        Cycle++;
+        for(City city : changed){
+            Integer c = Ids.get(city);
+            if(c == null) continue;
+            Reset[c]        = Cycle;
+            Snapshots[c]    = city.getSnapshot();
+            Taken[c]        = 0;
+            update(c);
+        }
+
+        //hotel rimasti delle città non ripubblicate
+        RankedHotel[] kept  = new RankedHotel[Top.length];
+        int[] keptOwners    = new int[Top.length];
+        int count = 0;
+        for(int i = 0; i < Top.length; i++){
+            if(Reset[Owners[i]] == Cycle) continue;
+            kept[count]         = Top[i];
+            keptOwners[count++] = Owners[i];
+        }
+
+        //fusione: a parità di rank precede l'hotel già in classifica,
+        //così gli hotel presi da ogni città restano i suoi primi
+        RankedHotel[] top   = new RankedHotel[Size];
+        int[] owners        = new int[Size];
+        int size = 0, k = 0;
+        while(size < Size && (k < count || HeapSize > 0)){
+            if(k < count && (HeapSize == 0 || kept[k].rank >= head(Heap[0]).rank)){
+                top[size]       = kept[k];
+                owners[size++]  = keptOwners[k++];
+            } else {
+                int c = Heap[0];
+                top[size]       = head(c);
+                owners[size++]  = c;
+                Taken[c]++;
+                update(c);
+            }
+        }
+        //gli hotel esclusi sono gli ultimi presi dalle loro città
+        for(; k < count; k++){
+            Taken[keptOwners[k]]--;
+            update(keptOwners[k]);
+        }
+
+        this.Top        = Arrays.copyOf(top, size);
+        this.Owners     = Arrays.copyOf(owners, size);
+        this.Published  = Arrays.copyOf(top, size, HotelDTO[].class);
+    }
+
+    //al più count hotel a partire dalla posizione from (array vuoto oltre la fine)
+    public HotelDTO[] range(int from, int count) {
+        HotelDTO[] top = Published;
+        int start   = Math.min(from, top.length);
+        int end     = start + Math.min(count, top.length - start);
+        return Arrays.copyOfRange(top, start, end);
+    }
+
+    private RankedHotel head(int c) {
+        return Snapshots[c].Entries[Taken[c]];
+    }
+
+    //riposiziona la città nell'heap dopo un cambio della sua testa
+    private void update(int c) {
+        boolean present = Taken[c] < Snapshots[c].Entries.length;
+        if(Slot[c] < 0){
+            if(!present) return;
+            Slot[c] = HeapSize;
+            Heap[HeapSize++] = c;
+            up(Slot[c]);
+        } else if(!present){
+            int slot = Slot[c];
+            Slot[c] = -1;
+            if(slot == --HeapSize) return;
+            Heap[slot] = Heap[HeapSize];
+            Slot[Heap[slot]] = slot;
+            up(slot);
+            down(slot);
+        } else {
+            up(Slot[c]);
+            down(Slot[c]);
+        }
+    }
+
+    //true se la città a precede b (rank della testa maggiore, poi indice minore)
+    private boolean before(int a, int b) {
+        int cmp = Double.compare(head(a).rank, head(b).rank);
+        return cmp != 0 ? cmp > 0 : a < b;
+    }
+
+    private void up(int slot) {
+        while(slot > 0){
+            int parent = (slot - 1) / 2;
+            if(!before(Heap[slot], Heap[parent])) return;
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void down(int slot) {
+        while(true){
+            int best = slot, left = 2 * slot + 1, right = left + 1;
+            if(left < HeapSize && before(Heap[left], Heap[best]))   best = left;
+            if(right < HeapSize && before(Heap[right], Heap[best])) best = right;
+            if(best == slot) return;
+            swap(slot, best);
+            slot = best;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int c = Heap[i];
+        Heap[i]         = Heap[j];
+        Heap[j]         = c;
+        Slot[Heap[i]]   = i;
+        Slot[Heap[j]]   = j;
+    }
+}
@@ -16,6 +16,14 @@ public class Hotel{
     protected double      rank;
     protected Score       rating;
     protected int         rank_position;
+    //indice dell'hotel nella sua città, assegnato al caricamento
+    protected transient int Local;
+    //città dell'hotel, assegnata al caricamento
+    protected transient City Owner;
+    //incrementata a ogni modifica dei campi del DTO (rating, rank, posizione)
+    protected transient long Version;
+    //ultima codifica del DTO, valida per Version
+    protected transient volatile EncodedHotel Encoded;
 
     public Hotel (int id, String name, String description, String city, String phone, String[] services, double rank,Score rating,int rank_position) {
         this.id             = id;
@@ -70,6 +78,13 @@ public class Hotel{
         rating = newRating;
         //arrotonda alla prima cifra decimale
         rank = Math.round(rating.getMean() * 100.0) / 100.0;
+        Version++;
+    }
+
+    public void setRankPosition(int position){
+        if(rank_position == position) return;
+        rank_position = position;
+        Version++;
     }
 
     @Override
@@ -96,12 +111,12 @@ public class Hotel{
         return str.toString();
     }
 
-    public HotelDTO toDTO(){
+    public RankedHotel toDTO(){
         try{
-        return new HotelDTO(name, description, city, phone, 
+        return new RankedHotel(this, Version, name, description, city, phone, 
                             services != null? services.clone():services, 
                             rank,rating != null? rating.clone():Score.Placeholder(),
-                            rank_position);
+                            rating != null, rank_position);
         }catch(Exception e){
             e.printStackTrace();
             return null;
@@ -0,0 +1,62 @@
+package serverUtil;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Executor che limita il numero di task in esecuzione contemporanea.
+ *
+ * Pensato per l'executor a virtual thread: ogni task ottiene il proprio
+ * thread e attende un permesso prima di eseguire, così l'attesa non
+ * blocca mai il chiamante (il reactor) ma solo il virtual thread.
+ */
+public class LimitedExecutor extends AbstractExecutorService {
+
+    private final ExecutorService   delegate;
+    private final Semaphore         permits;
+
+    public LimitedExecutor(ExecutorService delegate, int maxConcurrency) {
+        this.delegate   = delegate;
+        this.permits    = new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(() -> {
+            permits.acquireUninterruptibly();
+            try{
+                task.run();
+            } finally{
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
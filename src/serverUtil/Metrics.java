@@ -0,0 +1,53 @@
+package serverUtil;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Registro dei contatori del server
+ *
+ * I componenti ottengono una sola volta il riferimento al contatore e lo
+ * aggiornano senza ulteriori lookup. Il task stampa periodicamente
+ * lo stato di tutti i contatori (metrics_delay in server.properties)
+ */
+public class Metrics implements Runnable {
+
+    private static final ConcurrentHashMap<String, LongAdder>   Counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong>  Maxima   = new ConcurrentHashMap<>();
+
+    //contatore monotono identificato da name
+    public static LongAdder counter(String name) {
+        return Counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    //valore massimo osservato identificato da name
+    public static AtomicLong maximum(String name) {
+        return Maxima.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    //aggiorna il massimo se value è maggiore
+    public static void updateMax(AtomicLong max, long value) {
+        long current;
+        while(value > (current = max.get())){
+            if(max.compareAndSet(current, value)) return;
+        }
+    }
+
+    //restituisce una fotografia ordinata di tutti i valori
+    public static Map<String, Long> snapshot() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        Counters.forEach((name, c) -> values.put(name, c.sum()));
+        Maxima.forEach((name, m) -> values.put(name, m.get()));
+        return values;
+    }
+
+    @Override
+    public void run() {
+        StringBuilder str = new StringBuilder("[Metrics]");
+        snapshot().forEach((name, value) -> str.append(' ').append(name).append('=').append(value));
+        System.out.println(str.toString());
+    }
+}
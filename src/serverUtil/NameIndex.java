@@ -0,0 +1,262 @@
+package serverUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/*
+ * Indice per prefisso dei nomi di città e hotel (AUTOCOMPLETE)
+ *
+ * I nomi normalizzati sono ordinati (byte UTF-8 senza segno) e memorizzati
+ * in un unico byte[] con front coding: in ogni blocco di BLOCK nomi il
+ * primo è completo, i successivi contengono solo la lunghezza del prefisso
+ * in comune con il precedente e il suffisso. I nomi con un dato prefisso
+ * formano un intervallo contiguo, individuato con una ricerca binaria sui
+ * primi nomi dei blocchi e la scansione di al più un blocco.
+ *
+ * Le N corrispondenze migliori dell'intervallo si estraggono da un segment
+ * tree sui rank (massimo per nodo) in O(N log n). Dopo ogni ciclo che
+ * pubblica nuove classifiche il RankManager aggiorna, su una copia
+ * dell'albero sostituita con una scrittura volatile, solo le foglie delle
+ * città ripubblicate. I nomi non cambiano durante l'esecuzione del server
+ */
+public class NameIndex {
+
+    private static final int BLOCK = 16;
+
+    private final byte[]    Names;      //nomi con front coding
+    private final int[]     Blocks;     //offset in Names del primo nome di ogni blocco
+    private final int       Size;
+    private final int       MaxLength;  //lunghezza massima di un nome in byte
+    private final City[]    Cities;     //città del nome (o la città stessa)
+    private final Hotel[]   Hotels;     //hotel del nome, null per le città
+    private final HashMap<City, int[]> Owned;   //città -> indici dei suoi nomi
+    private final int       Leaves;     //potenza di 2 >= Size
+    private volatile float[] Tree;      //segment tree dei rank, foglia i in Leaves + i
+
+    private static class Entry {
+        final byte[]    Key;
+        final City      Owner;  //città del nome
+        final Hotel     Target; //null per le città
+
+        Entry(String name, City owner, Hotel target) {
+            this.Key    = City.normalize(name).getBytes(StandardCharsets.UTF_8);
+            this.Owner  = owner;
+            this.Target = target;
+        }
+    }
+
+    public NameIndex(Collection<City> cities) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for(City city : cities){
+            entries.add(new Entry(city.Name, city, null));
+            for(Hotel h : city.getSnapshot().Hotels)
+                entries.add(new Entry(h.getName(), city, h));
+        }
+        entries.sort((e1, e2) -> Arrays.compareUnsigned(e1.Key, e2.Key));
+
+        this.Size   = entries.size();
+        this.Cities = new City[Size];
+        this.Hotels = new Hotel[Size];
+        this.Blocks = new int[(Size + BLOCK - 1) / BLOCK];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] previous = null;
+        int max = 0;
+        for(int i = 0; i < Size; i++){
+            Entry e = entries.get(i);
+            Cities[i] = e.Owner;
+            Hotels[i] = e.Target;
+            if(i % BLOCK == 0){
+                Blocks[i / BLOCK] = out.size();
+                previous = null;
+            }
+            int shared = 0;
+            if(previous != null){
+                shared = Arrays.mismatch(previous, e.Key);
+                if(shared < 0) shared = e.Key.length;   //nomi uguali
+            }
+            writeVarint(out, shared);
+            writeVarint(out, e.Key.length - shared);
+            out.write(e.Key, shared, e.Key.length - shared);
+            previous = e.Key;
+            max = Math.max(max, e.Key.length);
+        }
+        this.Names      = out.toByteArray();
+        this.MaxLength  = max;
+
+        HashMap<City, ArrayList<Integer>> owned = new HashMap<>();
+        for(int i = 0; i < Size; i++) owned.computeIfAbsent(Cities[i], c -> new ArrayList<>()).add(i);
+        this.Owned = new HashMap<>(owned.size() * 2);
+        owned.forEach((city, names) -> Owned.put(city, names.stream().mapToInt(Integer::intValue).toArray()));
+
+        int leaves = 1;
+        while(leaves < Size) leaves <<= 1;
+        this.Leaves = leaves;
+        refresh();
+    }
+
+    /*
+     * Costruisce l'albero dei rank dalle classifiche pubblicate.
+     * Il rank di una città è quello del suo hotel migliore
+     */
+    private void refresh() {
+        float[] tree = new float[2 * Leaves];
+        Arrays.fill(tree, Float.NEGATIVE_INFINITY);
+        for(int i = 0; i < Size; i++) tree[Leaves + i] = rankOf(i);
+        for(int node = Leaves - 1; node > 0; node--)
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        Tree = tree;
+    }
+
+    /*
+     * Aggiorna l'albero dopo la pubblicazione delle nuove classifiche
+     * delle città indicate. Invocato dal RankManager
+     */
+    protected void refresh(Collection<City> changed) {
+        float[] tree = Tree.clone();
+        for(City city : changed){
+            int[] names = Owned.get(city);
+            if(names == null) continue;
+            for(int i : names){
+                int node = Leaves + i;
+                tree[node] = rankOf(i);
+                //si risale finché il massimo del nodo cambia
+                for(node >>>= 1; node > 0; node >>>= 1){
+                    float max = Math.max(tree[2 * node], tree[2 * node + 1]);
+                    if(tree[node] == max) break;
+                    tree[node] = max;
+                }
+            }
+        }
+        Tree = tree;
+    }
+
+    private float rankOf(int i) {
+        RankSnapshot snapshot = Cities[i].getSnapshot();
+        return Hotels[i] != null ? (float) snapshot.get(Hotels[i]).rank : (float) snapshot.MaxRank;
+    }
+
+    /*
+     * Restituisce al più n nomi che iniziano con prefix, ordinati per rank,
+     * come coppie consecutive [città, hotel]. Per le città l'hotel è ""
+     */
+    public String[] complete(String prefix, int n) {
+        byte[] key  = City.normalize(prefix).getBytes(StandardCharsets.UTF_8);
+        int from    = lowerBound(key);
+        byte[] next = successor(key);
+        int to      = next == null ? Size : lowerBound(next);
+
+        int[] best = top(from, to, n);
+        String[] result = new String[2 * best.length];
+        for(int i = 0; i < best.length; i++){
+            Hotel h = Hotels[best[i]];
+            if(h != null){
+                result[2 * i]       = h.getCity();
+                result[2 * i + 1]   = h.getName();
+            } else {
+                //nome originale della città dal primo dei suoi hotel
+                result[2 * i]       = Cities[best[i]].getSnapshot().Hotels[0].getCity();
+                result[2 * i + 1]   = "";
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return Size;
+    }
+
+    /*
+     * Indici dei (al più) n rank maggiori nell'intervallo [from, to).
+     * Parte dai nodi che coprono esattamente l'intervallo ed espande
+     * sempre il nodo con il massimo più alto
+     */
+    private int[] top(int from, int to, int n) {
+        float[] tree = Tree;
+        int[] result = new int[Math.max(0, Math.min(n, to - from))];
+        if(result.length == 0) return result;
+
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> Float.compare(tree[b], tree[a]));
+        for(int l = from + Leaves, r = to + Leaves; l < r; l >>= 1, r >>= 1){
+            if((l & 1) == 1) queue.add(l++);
+            if((r & 1) == 1) queue.add(--r);
+        }
+        int count = 0;
+        while(count < result.length){
+            int node = queue.poll();
+            if(node >= Leaves){
+                result[count++] = node - Leaves;
+            } else {
+                queue.add(2 * node);
+                queue.add(2 * node + 1);
+            }
+        }
+        return result;
+    }
+
+    //indice del primo nome >= key
+    private int lowerBound(byte[] key) {
+        //ultimo blocco il cui primo nome è < key
+        int lo = 0, hi = Blocks.length - 1, block = -1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int[] pos = {Blocks[mid]};
+            readVarint(pos);                    //prefisso in comune: sempre 0
+            int length = readVarint(pos);
+            if(Arrays.compareUnsigned(Names, pos[0], pos[0] + length, key, 0, key.length) < 0){
+                block = mid;
+                lo = mid + 1;
+            } else hi = mid - 1;
+        }
+        if(block < 0) return 0;
+
+        //scansione del blocco ricostruendo i nomi
+        byte[] name = new byte[MaxLength];
+        int[] pos   = {Blocks[block]};
+        int index   = block * BLOCK;
+        int end     = Math.min(index + BLOCK, Size);
+        for(; index < end; index++){
+            int shared = readVarint(pos);
+            int suffix = readVarint(pos);
+            System.arraycopy(Names, pos[0], name, shared, suffix);
+            pos[0] += suffix;
+            if(Arrays.compareUnsigned(name, 0, shared + suffix, key, 0, key.length) >= 0)
+                return index;
+        }
+        //il primo nome del blocco successivo è >= key
+        return end;
+    }
+
+    //più piccola chiave maggiore di tutte quelle che iniziano con key (null se non esiste)
+    private static byte[] successor(byte[] key) {
+        for(int i = key.length - 1; i >= 0; i--){
+            if(key[i] != (byte) 0xFF){
+                byte[] next = Arrays.copyOf(key, i + 1);
+                next[i]++;
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private int readVarint(int[] pos) {
+        int value = 0;
+        for(int shift = 0; ; shift += 7){
+            byte b = Names[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -46,12 +47,13 @@ public class Parser {
 
     /**
      * Carica gli hotel dal file JSON e li inserisce nella mappa degli hotel.
+     * Per ogni città viene costruito l'indice dei nomi (City).
      */
     public static class HotelsLoad implements Runnable {
         private final String filepath; // Percorso del file JSON contenente gli hotel
-        private final ConcurrentHashMap<String, ArrayList<Hotel>> Map; // Mappa degli hotel da aggiornare
+        private final ConcurrentHashMap<String, City> Map; // Mappa degli hotel da aggiornare
 
-        public HotelsLoad(String path, ConcurrentHashMap<String, ArrayList<Hotel>> table) {
+        public HotelsLoad(String path, ConcurrentHashMap<String, City> table) {
             this.filepath   = path;
             this.Map        = table;
         }
@@ -60,15 +62,12 @@ public class Parser {
         public void run() {
             try (JsonReader reader = new JsonReader(new FileReader(filepath))) {
                 List<Hotel> hotelsFromFile = Gson.fromJson(reader, HotelsListT);
+                //raggruppa gli hotel per città mantenendo l'ordine del file
+                LinkedHashMap<String, ArrayList<Hotel>> byCity = new LinkedHashMap<>();
                 for (Hotel h : hotelsFromFile) {
-                    Map.compute(h.getCity().toLowerCase(), 
-                        (String key, ArrayList<Hotel> value) -> {
-                            if (value == null) value = new ArrayList<>();
-                            value.add(h);
-                            return value;
-                        }
-                    );
+                    byCity.computeIfAbsent(City.normalize(h.getCity()), key -> new ArrayList<>()).add(h);
                 }
+                byCity.forEach((name, hotels) -> Map.put(name, new City(name, hotels)));
             } catch (Exception e) {
                 // Problemi riscontrati possono includere file non trovato o JSON malformato
                 e.printStackTrace();
@@ -82,26 +81,26 @@ public class Parser {
      */
     public static class HotelsSave implements Runnable {
         private final String filepath; // Percorso del file JSON in cui salvare gli hotel
-        Collection<ArrayList<Hotel>> HotelsToSaveMap; // Collezione di mappe di hotel da salvare
+        Collection<City> HotelsToSaveMap; // Collezione delle città da salvare
         private Path tempfile; // Percorso del file temporaneo
 
-        public HotelsSave(String path, ConcurrentHashMap<String, ArrayList<Hotel>> hotels) {
+        public HotelsSave(String path, ConcurrentHashMap<String, City> hotels) {
             this.filepath = path;
             this.HotelsToSaveMap = hotels.values();
         }
 
         @Override
         public void run() {
-            Iterator<ArrayList<Hotel>> ListsToSave = HotelsToSaveMap.iterator();
+            Iterator<City> ListsToSave = HotelsToSaveMap.iterator();
             try {
                 tempfile = TempFileUtil.createTempSameDir(filepath, "htl", ".tmp");
                 try (JsonWriter writer = Gson.newJsonWriter(new FileWriter(tempfile.toFile()))) {
                     writer.beginArray();
                     while(ListsToSave.hasNext()) {
-                        ArrayList<Hotel> hotelsList = ListsToSave.next();
-                        //synchronized (hotelsList){
-                            hotelsList.forEach(h -> Gson.toJson(h,HotelT, writer));
-                        //}
+                        //copie immutabili della classifica pubblicata: gli Hotel
+                        //sono modificati dal RankManager durante il salvataggio
+                        for(RankedHotel h : ListsToSave.next().getSnapshot().Entries)
+                            Gson.toJson(h.toHotel(),HotelT, writer);
                     }
                     writer.endArray().flush();
                     //rimpiazza il file principale con il file temporaneo
@@ -0,0 +1,35 @@
+package serverUtil;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Posizione di una sessione nella classifica di una città (SEARCH_ALL)
+ *
+ * La RankSnapshot è condivisa con le altre sessioni e con le ricerche:
+ * la sessione conserva solo il riferimento, l'offset e la dimensione
+ * della pagina. Tutte le pagine provengono dalla stessa classifica anche
+ * se nel frattempo il RankManager ne pubblica una nuova
+ */
+public class RankCursor {
+
+    private final RankSnapshot  Snapshot;
+    private final int           PageSize;
+    private int                 Offset;
+
+    public RankCursor(RankSnapshot snapshot, int pageSize) {
+        this.Snapshot   = snapshot;
+        this.PageSize   = pageSize;
+        this.Offset     = 0;
+    }
+
+    //pagina successiva, più corta se la classifica è terminata
+    public HotelDTO[] next() {
+        HotelDTO[] page = Snapshot.range(Offset, PageSize);
+        Offset += page.length;
+        return page;
+    }
+
+    public boolean hasNext() {
+        return Offset < Snapshot.size();
+    }
+}
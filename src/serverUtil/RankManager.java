@@ -6,7 +6,9 @@ import java.net.InetAddress;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
@@ -63,10 +65,11 @@ public class RankManager implements Runnable {
     private static RankManager instance = null;
 
     // Strutture dati per memorizzare informazioni su hotel e recensioni
-    private static ConcurrentHashMap<String, ArrayList<Hotel>>      HotelsTable;
-    private static ConcurrentHashMap<Integer, ArrayList<Review>>    ReviewsTable;
+    private static ReviewAccumulator                                Reviews;
     private static ConcurrentHashMap<String,User>                   UsersTable;
     private static LinkedBlockingQueue<Review>                      DumpQueue;
+    private static NameIndex                                        Names;
+    private static GlobalRanking                                    Global;
 
     // Notificatore UDP per la trasmissione degli aggiornamenti
     private static UDPNotifier multicaster;
@@ -82,15 +85,20 @@ public class RankManager implements Runnable {
     private static int exp_sup;
     private static Consumer<String> addExperience;
     private static LocalDateTime comparison;
+    //recensioni prelevate per l'hotel in aggiornamento, riusata a ogni hotel
+    private final ArrayList<Review> reviews = new ArrayList<>();
+    //hotel con nuove recensioni, riusata a ogni ciclo
+    private final ArrayList<Hotel> dirty = new ArrayList<>();
 
 
     /**
      * Costruttore privato per l'implementazione del pattern Singleton.
      */
     private RankManager() {
-        HotelsTable         = ServerContext.HotelsTable;
-        ReviewsTable        = ServerContext.ReviewsTable;
+        Reviews             = ServerContext.Reviews;
         DumpQueue           = ServerContext.DumpingQueue;
+        Names               = ServerContext.Names;
+        Global              = ServerContext.Global;
         time_decay          = ServerContext.TIME_DECAY;
         max_experience      = User.MAX_EXP;
         exp_multiplier      = ServerContext.EXP_MULTIPLIER;
@@ -144,9 +152,9 @@ public class RankManager implements Runnable {
      */
 
     private boolean updateRankDumpReviews(Hotel h,LocalDateTime comparison) {
-        //ottengo la lista delle recensioni dalla mappa e la rimuovo
-        ArrayList<Review> reviews = ReviewsTable.remove(h.getID());
-        if(reviews == null) return false;
+        //prelevo le recensioni in attesa dell'hotel
+        reviews.clear();
+        if(Reviews.drainTo(h.getID(), reviews) == 0) return false;
         
         Score score = null;
         synchronized(h){
@@ -180,49 +188,103 @@ public class RankManager implements Runnable {
         return true;
     }
 
-    private void UpdateTopHotel(ArrayList<Hotel> hlist){
-        Hotel hTop = hlist.get(0);
-            synchronized(hlist){
-                boolean toUpdate = false;
-                for(Hotel h : hlist){
-                    toUpdate = toUpdate || updateRankDumpReviews(h,comparison);
-                }
-                //ordinamento lista secondo il rank
-                //l'ultimo hotel della lista è quello che ha rank massimo
-                if(toUpdate){   //se false la lista è già ordinata
-                    Collections.sort(hlist,(h1,h2) -> Double.compare(h2.rank, h1.rank));
-
-                    //aggiorno la posizione di ogni hotel
-                    int i = 0;
-                    for(Hotel h : hlist){
-                        h.rank_position = i+1;
-                        i++;
-                    }
-                }
- 
-            }
-        /* 
-        if(hTop.getName().equals(hlist.get(hlist.size()-1).getName())){
-            //se l'hotel in cima alla lista è cambiato, invio una notifica
-            multicaster.NotifyGroup(hTop.getName());
+    /*
+     * Aggiorna i punteggi degli hotel indicati della città e, se qualcosa è
+     * cambiato, pubblica una nuova classifica. La classifica corrente non
+     * viene mai modificata: si lavora su una copia, quindi i lettori
+     * non si sincronizzano con il RankManager.
+     * Restituisce true se è stata pubblicata una nuova classifica
+     */
+    private boolean UpdateTopHotel(City city, ArrayList<Hotel> touched){
+        RankSnapshot current = city.getSnapshot();
+        Hotel[] previous = current.Hotels;
+
+        //posizioni nella classifica corrente degli hotel aggiornati
+        int[] moved = new int[touched.size()];
+        int count = 0;
+        for(Hotel h : touched){
+            if(updateRankDumpReviews(h,comparison)) moved[count++] = current.indexOf(h.Local);
         }
-            */
-        if(!(hTop.getName().equals(hlist.get(0).getName()))){
+        if(count == 0) return false;   //la classifica corrente è ancora valida
+
+        //la classifica corrente è ordinata anche alla prima esecuzione (City la ordina al caricamento)
+        Hotel[] ranked = reposition(previous, moved, count);
+
+        //aggiorno la posizione di ogni hotel (nessun effetto se non è cambiata)
+        for(int i = 0; i < ranked.length; i++){
+            ranked[i].setRankPosition(i+1);
+        }
+        city.publish(new RankSnapshot(current.Version + 1, ranked, current));
+
+        Hotel hTop = previous[0];
+        if(!(hTop.getName().equals(ranked[0].getName()))){
             //se l'hotel in cima alla lista è cambiato, invio una notifica
             System.out.println("[RankManager] Notifying " + hTop.getName());
             multicaster.NotifyGroup(hTop.getName());
         }
+        return true;
+    }
+
+    /*
+     * Nuova classifica in cui gli hotel alle posizioni moved (le prime count)
+     * sono spostati secondo il nuovo rank. Gli altri hanno lo stesso rank e
+     * restano ordinati: vengono compattati e ogni hotel aggiornato è
+     * reinserito nel punto trovato con una ricerca binaria, facendo scorrere
+     * i successivi
+     */
+    private static Hotel[] reposition(Hotel[] previous, int[] moved, int count){
+        Arrays.sort(moved, 0, count);
+        Hotel[] ranked = new Hotel[previous.length];
+        int size = 0, from = 0;
+        for(int i = 0; i <= count; i++){
+            int to = i < count ? moved[i] : previous.length;
+            System.arraycopy(previous, from, ranked, size, to - from);
+            size += to - from;
+            from = to + 1;
+        }
+        for(int i = 0; i < count; i++){
+            Hotel h = previous[moved[i]];
+            int at = insertionPoint(ranked, size, h.rank);
+            System.arraycopy(ranked, at, ranked, at + 1, size - at);
+            ranked[at] = h;
+            size++;
+        }
+        return ranked;
+    }
 
+    //primo indice con rank minore: a parità l'hotel aggiornato segue quelli già in classifica
+    private static int insertionPoint(Hotel[] ranked, int size, double rank){
+        int low = 0, high = size;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(ranked[mid].rank >= rank) low = mid + 1;
+            else high = mid;
+        }
+        return low;
     }
 
     @Override
     public void run() {
         if(++exec % 10 == 0)
             System.out.println("[RankManager] executed 10 times");
+        //solo gli hotel con nuove recensioni, un ciclo senza recensioni termina qui
+        dirty.clear();
+        if(Reviews.takeDirty(dirty) == 0) return;
         updateTime();
-        //aggiorno il ranking di tutti gli hotel e li ordino
-        for(ArrayList<Hotel> hotels : HotelsTable.values()){
-            UpdateTopHotel(hotels);
+
+        HashMap<City, ArrayList<Hotel>> touched = new HashMap<>();
+        for(Hotel h : dirty){
+            touched.computeIfAbsent(h.Owner, c -> new ArrayList<>()).add(h);
+        }
+        //aggiorno il ranking degli hotel e riordino le loro città
+        ArrayList<City> published = new ArrayList<>();
+        for(Map.Entry<City, ArrayList<Hotel>> entry : touched.entrySet()){
+            if(UpdateTopHotel(entry.getKey(), entry.getValue())) published.add(entry.getKey());
+        }
+        //i rank dell'indice dei nomi e la classifica nazionale seguono le nuove classifiche
+        if(!published.isEmpty()){
+            Names.refresh(published);
+            Global.refresh(published);
         }
         
     }
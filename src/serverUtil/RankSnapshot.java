@@ -0,0 +1,65 @@
+package serverUtil;
+
+import java.util.Arrays;
+import lib.share.struct.HotelDTO;
+
+/*
+ * Classifica immutabile degli hotel di una città
+ *
+ * Viene costruita dal RankManager a ogni ciclo che modifica i punteggi
+ * e pubblicata in City con un'unica scrittura volatile. I lettori
+ * usano sempre uno snapshot coerente senza prendere lock.
+ * I DTO degli hotel non modificati dalla classifica precedente (stessa
+ * Hotel.Version) vengono riusati.
+ *
+ * I DTO sono condivisi tra tutte le risposte: non vanno modificati
+ */
+public class RankSnapshot {
+
+    protected final long        Version;
+    protected final Hotel[]     Hotels;     //ordinati per rank
+    protected final RankedHotel[] Entries;    //stato di ogni hotel alla pubblicazione, stesso ordine
+    private final int[]         PositionOf; //Hotel.Local -> indice in Hotels
+    protected final double      MaxRank;    //rank massimo, 0 se la città è vuota
+
+    public RankSnapshot(long version, Hotel[] ranked) {
+        this(version, ranked, null);
+    }
+
+    public RankSnapshot(long version, Hotel[] ranked, RankSnapshot previous) {
+        this.Version    = version;
+        this.Hotels     = ranked;
+        this.Entries    = new RankedHotel[ranked.length];
+        this.PositionOf = new int[ranked.length];
+        double max = 0;
+        for(int i = 0; i < ranked.length; i++){
+            RankedHotel entry = previous != null ? previous.get(ranked[i]) : null;
+            Entries[i]                      = entry != null && entry.Version == ranked[i].Version ?
+                                                entry : ranked[i].toDTO();
+            PositionOf[ranked[i].Local]     = i;
+            max = Math.max(max, Entries[i].rank);
+        }
+        this.MaxRank    = max;
+    }
+
+    //DTO dell'hotel in questo snapshot
+    public RankedHotel get(Hotel h) {
+        return Entries[PositionOf[h.Local]];
+    }
+
+    //posizione (da 0) dell'hotel con indice local nella sua città
+    protected int indexOf(int local) {
+        return PositionOf[local];
+    }
+
+    //al più count hotel a partire dalla posizione from (array vuoto oltre la fine)
+    public HotelDTO[] range(int from, int count) {
+        int start   = Math.min(from, Hotels.length);
+        int end     = start + Math.min(count, Hotels.length - start);
+        return Arrays.copyOfRange(Entries, start, end, HotelDTO[].class);
+    }
+
+    public int size() {
+        return Hotels.length;
+    }
+}
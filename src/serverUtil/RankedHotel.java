@@ -0,0 +1,33 @@
+package serverUtil;
+
+import lib.share.struct.HotelDTO;
+import lib.share.struct.Score;
+
+/*
+ * HotelDTO pubblicato in una RankSnapshot
+ *
+ * Ricorda l'hotel da cui è stato creato e la sua versione, così la
+ * risposta può essere composta con la codifica in cache (EncodedHotel).
+ * I campi aggiunti sono transient: la serializzazione è quella di HotelDTO.
+ * Il salvataggio degli hotel (Parser.HotelsSave) usa questa copia invece
+ * dell'hotel, che il RankManager modifica in contemporanea
+ */
+public class RankedHotel extends HotelDTO {
+
+    protected final transient Hotel Source;
+    protected final transient long  Version;
+    //false se l'hotel non ha ancora un punteggio (rating è un segnaposto)
+    protected final transient boolean Rated;
+
+    public RankedHotel(Hotel source, long version, String name, String description, String city, String phone, String[] services, double rank, Score rating, boolean rated, int rank_position) {
+        super(name, description, city, phone, services, rank, rating, rank_position);
+        this.Source     = source;
+        this.Version    = version;
+        this.Rated      = rated;
+    }
+
+    //hotel con lo stato di questa copia, nel formato del file degli hotel
+    protected Hotel toHotel() {
+        return new Hotel(Source.id, name, description, city, phone, services, rank, Rated ? rating : null, rank_position);
+    }
+}
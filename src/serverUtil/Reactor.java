@@ -0,0 +1,410 @@
+package serverUtil;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Reactor di I/O
+ *
+ * Ogni reactor possiede un proprio Selector ed esegue il ciclo di
+ * letture/scritture delle connessioni che gli vengono assegnate.
+ * Il reactor che possiede il ServerSocketChannel (acceptor) smista
+ * le nuove connessioni tramite ServerMain.dispatch
+ *
+ * I worker non modificano direttamente il set di interesse delle chiavi:
+ * segnalano l'operazione alla sessione (submit) e il reactor applica
+ * tutti i comandi accodati una volta per ciclo. Il selettore viene
+ * risvegliato al più una volta per ogni attesa in select()
+ */
+public class Reactor implements Runnable {
+
+    private final int                                   Id;
+    private final Selector                              selector;
+    private final AtomicBoolean                         runningFlag;
+    //canali assegnati dall'acceptor in attesa di registrazione
+    private final ConcurrentLinkedQueue<SocketChannel>  PendingChannels;
+    //numero di connessioni gestite (usato per il bilanciamento)
+    private final AtomicInteger                         Connections;
+    //sessioni con comandi in attesa [più produttori, un solo consumatore]
+    private final ConcurrentLinkedQueue<Session>        Commands;
+    //chiavi con letture sospese dal controllo di ammissione [solo reactor]
+    private final ArrayList<SelectionKey>               Throttled;
+    //settato da chi risveglia il selettore, azzerato dal reactor
+    private final AtomicBoolean                         WakeupPending;
+
+    //timeout delle connessioni (null se disattivati)
+    private final TimerWheel                            Timers;
+    private long                                        Now;    //istante dell'iterazione corrente
+
+    private static final long IDLE_TIMEOUT      = ServerContext.IDLE_TIMEOUT;
+    private static final long HALF_OPEN_TIMEOUT = ServerContext.HALF_OPEN_TIMEOUT;
+
+    // Comandi inviati dai worker (combinabili)
+    protected static final int CMD_READ     = 1;    //riprende le letture
+    protected static final int CMD_WRITE    = 2;    //registra OP_WRITE
+    protected static final int CMD_CLOSE    = 4;    //chiude la connessione
+
+    // Metriche
+    private final LongAdder     Wakeups;        //chiamate effettive a selector.wakeup()
+    private final LongAdder     Drains;         //cicli con almeno un comando
+    private final LongAdder     Drained;        //comandi applicati
+    private final AtomicLong    MaxDrained;     //comandi massimi in un ciclo
+    private final LongAdder     Expired;        //connessioni chiuse per timeout
+
+    public Reactor(int id, AtomicBoolean runningFlag) throws IOException {
+        this.Id                 = id;
+        this.selector           = Selector.open();
+        this.runningFlag        = runningFlag;
+        this.PendingChannels    = new ConcurrentLinkedQueue<>();
+        this.Connections        = new AtomicInteger(0);
+        this.Commands           = new ConcurrentLinkedQueue<>();
+        this.WakeupPending      = new AtomicBoolean(false);
+        this.Throttled          = new ArrayList<>();
+        this.Now                = System.currentTimeMillis();
+        this.Timers             = (IDLE_TIMEOUT > 0 || HALF_OPEN_TIMEOUT > 0)
+                                ? new TimerWheel(ServerContext.TIMER_SLOTS, ServerContext.TIMER_TICK, Now)
+                                : null;
+        this.Wakeups            = Metrics.counter("reactor." + id + ".wakeups");
+        this.Drains             = Metrics.counter("reactor." + id + ".drains");
+        this.Drained            = Metrics.counter("reactor." + id + ".drained");
+        this.MaxDrained         = Metrics.maximum("reactor." + id + ".max_drained");
+        this.Expired            = Metrics.counter("reactor." + id + ".expired");
+    }
+
+    public int getId(){
+        return Id;
+    }
+
+    public Selector getSelector(){
+        return selector;
+    }
+
+    //numero di connessioni attualmente gestite dal reactor
+    public int getLoad(){
+        return Connections.get();
+    }
+
+    /*
+     * Risveglia il selettore del reactor. Se un risveglio è già in
+     * attesa di essere consumato la chiamata non ha effetto
+     */
+    public void wakeup(){
+        if(!WakeupPending.get() && WakeupPending.compareAndSet(false, true)){
+            Wakeups.increment();
+            selector.wakeup();
+        }
+    }
+
+    /*
+     * Invocato dai worker: accoda i comandi per la sessione.
+     * La sessione entra in coda solo se non aveva già comandi pendenti,
+     * così più comandi consecutivi vengono applicati insieme
+     */
+    public void submit(Session session, int command){
+        if(session.addCommands(command)){
+            Commands.add(session);
+            wakeup();
+        }
+    }
+
+    public long getWakeups(){
+        return Wakeups.sum();
+    }
+
+    public long getDrainedCommands(){
+        return Drained.sum();
+    }
+
+    /*
+     * Registra il ServerSocketChannel sul selettore del reactor.
+     * Deve essere invocato prima dell'avvio del ciclo
+     */
+    public void listen(ServerSocketChannel welcomeSocket) throws IOException {
+        welcomeSocket.configureBlocking(false)
+                     .register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /*
+     * Assegna un canale al reactor. Il canale viene registrato dal
+     * thread del reactor alla successiva iterazione del ciclo
+     */
+    public void assign(SocketChannel client){
+        Connections.incrementAndGet();
+        PendingChannels.add(client);
+        wakeup();
+    }
+
+    @Override
+    public void run(){
+        try{
+            while(runningFlag.get()){   //Settato a false da shutdown hook
+                //con timeout attivi il selettore si risveglia almeno una volta per tick
+                selector.select(Timers == null || Timers.isEmpty() ? 0 : Timers.getTick());
+                Now = System.currentTimeMillis();
+                //azzerato prima di svuotare le code: un comando accodato
+                //dopo questo punto produce un nuovo risveglio
+                WakeupPending.set(false);
+                registerPending();
+                drainCommands();
+                if(!Throttled.isEmpty() && !Admission.isShedding())
+                    resumeThrottled();
+                if(Timers != null)
+                    expireSessions();
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                while(keyIterator.hasNext()){
+                    SelectionKey key = keyIterator.next();
+                    //Cancella la chiave dalla collezione
+                    keyIterator.remove();
+                    try{
+                        //Richiesta di connessione
+                        if(key.isAcceptable()){
+                            handleAccept(key);
+                            continue;
+                        }
+                        //Richiesta di lettura
+                        if(key.isReadable())                    handleRead(key);
+
+                        //Richiesta di scrittura
+                        if(key.isValid() && key.isWritable())   handleWrite(key);
+
+                    } catch(Exception e){
+                        //un errore sull'acceptor non deve chiudere il server
+                        if(key.channel() instanceof ServerSocketChannel)
+                            e.printStackTrace();
+                        else close(key);
+                    }
+                }
+            }
+        } catch(IOException e){
+            e.printStackTrace();
+        } finally{
+            shutdown();
+        }
+    }
+
+    //registra sul selettore i canali assegnati dall'acceptor
+    private void registerPending(){
+        SocketChannel client;
+        while((client = PendingChannels.poll()) != null){
+            Session session = new Session();
+            session.Owner       = this;
+            session.LastRead    = Now;
+            session.LastWrite   = Now;
+            try{
+                client.configureBlocking(false);
+                session.Key = client.register(selector, SelectionKey.OP_READ, session);
+                if(Timers != null) Timers.schedule(session, deadline(session));
+            } catch(IOException e){
+                Connections.decrementAndGet();
+                try{ client.close(); } catch(IOException ignore){}
+            }
+        }
+    }
+
+    //applica i comandi accodati dai worker dall'ultimo ciclo
+    private void drainCommands(){
+        int count = 0;
+        Session session;
+        while((session = Commands.poll()) != null){
+            int commands = session.takeCommands();
+            count++;
+            SelectionKey key = session.Key;
+            if(key == null || !key.isValid()) continue;
+            try{
+                if((commands & CMD_CLOSE) != 0){
+                    close(key);
+                    continue;
+                }
+                if((commands & CMD_WRITE) != 0){
+                    //il timeout di scrittura parte da quando OP_WRITE è registrato
+                    session.LastWrite = Now;
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                }
+                if((commands & CMD_READ) != 0){
+                    key.interestOpsOr(SelectionKey.OP_READ);
+                    readBuffered(key);
+                }
+            } catch(CancelledKeyException e){
+                //connessione chiusa nel frattempo
+            }
+        }
+        if(count > 0){
+            Drains.increment();
+            Drained.add(count);
+            Metrics.updateMax(MaxDrained, count);
+        }
+    }
+
+    /*
+     * Riprende le letture sospese durante lo shedding. readBuffered può
+     * sospenderle di nuovo se lo shedding è ripreso: le chiavi aggiunte nel
+     * frattempo restano in Throttled
+     */
+    private void resumeThrottled(){
+        int count = Throttled.size();
+        for(int i = 0; i < count; i++){
+            SelectionKey key = Throttled.get(i);
+            try{
+                if(key.isValid()){
+                    key.interestOpsOr(SelectionKey.OP_READ);
+                    readBuffered(key);
+                }
+            } catch(CancelledKeyException e){
+                //connessione chiusa nel frattempo
+            }
+        }
+        Throttled.subList(0, count).clear();
+    }
+
+    /*
+     * Chiude le connessioni scadute. Le sessioni ancora attive vengono
+     * rischedulate: le letture aggiornano solo LastRead, quindi la ruota
+     * viene toccata al più una volta per timeout e non per ogni richiesta
+     */
+    private void expireSessions(){
+        Session session = Timers.expire(Now);
+        while(session != null){
+            Session next = session.TimerNext;
+            session.TimerNext = null;
+            if(!session.Closed){
+                long deadline = deadline(session);
+                if(deadline <= Now){
+                    Expired.increment();
+                    System.out.println("[Reactor-" + Id + "] timeout della connessione"
+                                        + (session.Username != null ? " di " + session.Username : ""));
+                    close(session.Key);
+                } else Timers.schedule(session, deadline);
+            }
+            session = next;
+        }
+    }
+
+    /*
+     * Scadenza della sessione in base al suo stato:
+     *  - risposte non lette dal client o pacchetto incompleto: half_open_timeout
+     *  - nessuna richiesta in corso: idle_timeout
+     * Le sessioni con richieste in esecuzione, o sospese dal controllo di
+     * ammissione, vengono solo ricontrollate più avanti
+     */
+    private long deadline(Session session){
+        long recheck = Now + (HALF_OPEN_TIMEOUT > 0 ? HALF_OPEN_TIMEOUT : IDLE_TIMEOUT);
+        if(session.getInFlight() > 0){
+            if(session.isWritePending() && HALF_OPEN_TIMEOUT > 0)
+                return session.LastWrite + HALF_OPEN_TIMEOUT;
+            return recheck;
+        }
+        if(Admission.isShedding())
+            return recheck;
+        if(session.hasPartialRequest() && HALF_OPEN_TIMEOUT > 0)
+            return session.LastRead + HALF_OPEN_TIMEOUT;
+        if(IDLE_TIMEOUT > 0)
+            return session.LastRead + IDLE_TIMEOUT;
+        return recheck;
+    }
+
+    private void handleAccept(SelectionKey key) throws IOException {
+        SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
+        if(clientChannel != null)
+            ServerMain.dispatch(clientChannel);
+    }
+
+    //scrittura dei pacchetti che il worker non è riuscito a inviare
+    private void handleWrite(SelectionKey key) throws Exception{
+        Session session = (Session) key.attachment();
+        session.LastWrite = Now;
+        session.writeTo(key);
+        readBuffered(key);
+    }
+
+    /*
+     * Invocato quando le letture riprendono: estrae i pacchetti rimasti nel
+     * buffer della sessione per finestra piena, che non generano OP_READ
+     */
+    private void readBuffered(SelectionKey key){
+        Session session = (Session) key.attachment();
+        if(!key.isValid() || !session.hasBufferedRequest()) return;
+        try{
+            handleRead(key);
+        } catch(Exception e){
+            close(key);
+        }
+    }
+
+    /*
+     * Accoda le richieste complete ricevute e, se la sessione non ne
+     * sta già eseguendo, affida la coda a un RequestHandler.
+     *
+     * Durante lo shedding le letture vengono sospese; se il MainPool
+     * è saturo le richieste ricevono SERVER_BUSY
+     */
+    private void handleRead(SelectionKey key) throws Exception{
+        Session session = (Session) key.attachment();
+        session.LastRead = Now;
+        if(Admission.isShedding()){
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+            Throttled.add(key);
+            return;
+        }
+        boolean dispatch = session.readFrom(key);
+        //pacchetto incompleto: la scadenza passa a half_open_timeout
+        if(Timers != null && HALF_OPEN_TIMEOUT > 0 && session.hasPartialRequest()
+                && session.TimerDeadline > Now + HALF_OPEN_TIMEOUT)
+            Timers.schedule(session, Now + HALF_OPEN_TIMEOUT);
+        if(dispatch){
+            try{
+                ServerContext.MainPool.submit(new RequestHandler(key));
+            } catch(RejectedExecutionException e){
+                RequestHandler.reject(session);
+            }
+        }
+    }
+
+    /*
+     * Cancella la chiave e disconnette il client
+     * effettuando il logout dell'utente
+     */
+    protected void close(SelectionKey key){
+        key.cancel();
+        Session session = (Session) key.attachment();
+        //la connessione potrebbe essere già stata chiusa
+        if(session.Closed) return;
+        session.Closed = true;
+        if(Timers != null) Timers.cancel(session);
+        ServerContext.Sessions.remove(session);
+        ServerContext.Resume.detach(session);
+        session.release();
+        Connections.decrementAndGet();
+        try{
+            key.channel().close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    //chiude tutte le connessioni e il selettore
+    private void shutdown(){
+        try{
+            for(SelectionKey key : selector.keys()){
+                if(key.attachment() instanceof Session) close(key);
+            }
+            selector.close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
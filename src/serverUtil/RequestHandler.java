@@ -1,23 +1,26 @@
 package serverUtil;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.EnumSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import lib.share.codec.BinaryCodec;
 import lib.share.packet.*;
 import lib.share.packet.Request.Method;
 import lib.share.packet.Response.Status;
 import lib.share.security.HashUtils;
 import lib.share.packet.Response.Error;
 import lib.share.struct.HotelDTO;
+import lib.share.struct.ReviewEntry;
 import lib.share.struct.Score;
 import lib.share.typeAdapter.RequestTypeAdapter;
 import lib.share.typeAdapter.ResponseTypeAdapter;
@@ -35,15 +38,28 @@ public class RequestHandler implements Runnable{
 
     //hashmaps per la gestione delle richieste
     private static ConcurrentHashMap<String,User>                   UsersTable;
-    private static ConcurrentHashMap<String,ArrayList<Hotel>>       HotelsTable;
-    private static ConcurrentHashMap<Integer, ArrayList<Review>>    ReviewsTable;
-    private static ConcurrentHashMap<String,Boolean>                LoggedTable;
+    private static ConcurrentHashMap<String,City>                   HotelsTable;
+    private static ReviewAccumulator                                Reviews;
+    private static SessionRegistry                                  Sessions;
+    private static ResumeTokens                                     Resume;
+    private static NameIndex                                        Names;
+    private static TextIndex                                        Text;
+    private static ServiceIndex                                     Services;
+    private static GlobalRanking                                    Global;
 
     private static final int SALT_LENGTH;
     private static final int DEF_BATCH_SIZE;
+    private static final int MAX_PAGE_SIZE;
+    private static final int MAX_REVIEW_BATCH;
     private static final Pattern USER_REGEX;
-
-    private static final Selector selector;
+    //dimensione iniziale del buffer di risposta
+    private static final int FRAME_HINT = 512;
+    //metodi eseguiti anche durante lo shedding
+    private static final EnumSet<Method> CHEAP_METHODS = EnumSet.of(
+        Method.PEEK_HOTEL, Method.IS_LOGGED, Method.LOGOUT, Method.SHOW_BADGE, Method.RESUME
+    );
+    //chiave del metodo nel JSON della richiesta
+    private static final byte[] METHOD_KEY = "\"method\"".getBytes(StandardCharsets.US_ASCII);
 
     static{
 
@@ -68,6 +84,14 @@ public class RequestHandler implements Runnable{
         HandlerTable.put(Method.SEARCH_ALL,     RequestHandler::handleSearchAll );
         HandlerTable.put(Method.REVIEW,         RequestHandler::handleReview    );
         HandlerTable.put(Method.SHOW_BADGE,     RequestHandler::handleShowBadge );
+        HandlerTable.put(Method.TOP_K,          RequestHandler::handleTopK      );
+        HandlerTable.put(Method.AUTOCOMPLETE,   RequestHandler::handleAutocomplete);
+        HandlerTable.put(Method.SEARCH_TEXT,    RequestHandler::handleSearchText);
+        HandlerTable.put(Method.SEARCH_FILTER,  RequestHandler::handleSearchFilter);
+        HandlerTable.put(Method.GLOBAL_TOP,     RequestHandler::handleGlobalTop );
+        HandlerTable.put(Method.REVIEW_BATCH,   RequestHandler::handleReviewBatch);
+        HandlerTable.put(Method.LOGIN_FAST,     RequestHandler::handleLoginFast );
+        HandlerTable.put(Method.RESUME,         RequestHandler::handleResume    );
 
         /*
          * Si salvano i riferimenti alle tabelle
@@ -75,58 +99,178 @@ public class RequestHandler implements Runnable{
          */
         UsersTable      = ServerContext.UsersTable;
         HotelsTable     = ServerContext.HotelsTable;
-        ReviewsTable    = ServerContext.ReviewsTable;
-        LoggedTable     = ServerContext.LoggedTable;
+        Names           = ServerContext.Names;
+        Text            = ServerContext.Text;
+        Services        = ServerContext.Services;
+        Global          = ServerContext.Global;
+        Reviews         = ServerContext.Reviews;
+        Sessions        = ServerContext.Sessions;
+        Resume          = ServerContext.Resume;
 
         //Dimensione massima del batch di Hotel [handleSearchAll]
         DEF_BATCH_SIZE  = ServerContext.MAX_BATCH_SIZE;
+        //Dimensione massima della pagina richiesta dal client [handleSearchAll]
+        MAX_PAGE_SIZE   = ServerContext.MAX_PAGE_SIZE;
+        //Recensioni massime per pacchetto [handleReviewBatch]
+        MAX_REVIEW_BATCH = ServerContext.MAX_REVIEW_BATCH;
         //Lunghezza del salt
         SALT_LENGTH     = ServerContext.SALT_LENGTH;
         //Regex per il controllo dell'username
         USER_REGEX  = Pattern.compile(ServerContext.USERNAME_REGEX);
 
-        //Si ottiene il selettore
-        selector = ServerMain.getSelector();
-
     }
 
     //Parametri dell'Istanza
-    private SelectionKey    key;
     private Session         session;
 
     public RequestHandler(SelectionKey key) {
         
-        this.key        = key;
         this.session    = (Session) key.attachment();
 
     }
 
+    /*
+     * Esegue in ordine tutte le richieste accodate nella sessione.
+     * Un solo RequestHandler per sessione è attivo in ogni momento
+     */
     @Override
     public void run(){
         try{
-            //Deserializzazione della richiesta
-            Request requestObject = Gson.fromJson(session.getMessage(), Request.class);
-            System.out.println("[MainPool] gestione di "+ requestObject.getMethod().name());
-
-            //si ottiene l'Handler dalla Handler Table
-            BiFunction<Request,Session,Response> handler = HandlerTable.get(requestObject.getMethod());
-            //L'Handler viene eseguito
-            Response response = (handler != null) ? handler.apply(requestObject, session) : new Response(Error.INVALID_REQUEST);
-            //Serializzazione della risposta e salvataggio
-            session.setMessage(Gson.toJson(response,Response.class));
-            key.interestOps(SelectionKey.OP_WRITE);
-            
+            do{
+                ByteBuffer request;
+                while((request = session.nextRequest()) != null){
+                    try{
+                        execute(request);
+                    } finally{
+                        Admission.exit();
+                    }
+                }
+            } while(session.endRequests());
+
         } catch(Exception e) {
-            //In caso di errore la registrazione della chiave
-            //viene annullata
-            key.cancel();
+            //In caso di errore la connessione viene chiusa
+            //dal reactor che la possiede
+            session.Owner.submit(session, Reactor.CMD_CLOSE);
             e.printStackTrace();
+        }
+    }
+
+    //Esegue una richiesta e ne invia la risposta
+    private void execute(ByteBuffer request) throws Exception {
+        session.negotiate(request);
+        /*
+         * Server sovraccarico: il metodo viene letto dal pacchetto senza
+         * deserializzarlo e le richieste costose vengono scartate.
+         * Il secondo passo di un'operazione già avviata viene sempre eseguito
+         */
+        if(Admission.isShedding()){
+            Method method = session.Binary ? BinaryCodec.peekMethod(request) : sniffMethod(request);
+            if(method != null && !CHEAP_METHODS.contains(method) && method != session.getMethod()){
+                session.releaseMessage(request);
+                Admission.shed();
+                session.send(encode(session, new Response(Error.SERVER_BUSY, Admission.retryAfter())));
+                return;
+            }
+        }
+        //Deserializzazione della richiesta direttamente dal buffer
+        Request requestObject;
+        try{
+            requestObject = session.Binary
+                            ? BinaryCodec.readRequest(request)
+                            : Gson.fromJson(Gson.newJsonReader(session.getMessageReader(request)), Request.class);
         } finally{
-            //Il selettore viene risvegliato in ogni caso
-            selector.wakeup();
+            session.releaseMessage(request);
+        }
+        System.out.println("[MainPool] gestione di "+ requestObject.getMethod().name());
+
+        //si ottiene l'Handler dalla Handler Table
+        BiFunction<Request,Session,Response> handler = HandlerTable.get(requestObject.getMethod());
+        //L'Handler viene eseguito
+        Response response = (handler != null) ? handler.apply(requestObject, session) : new Response(Error.INVALID_REQUEST);
+        //Serializzazione della risposta direttamente in un buffer del pool
+        //e tentativo di scrittura immediata (OP_WRITE solo se parziale)
+        session.send(encode(session, response));
+    }
+
+    /*
+     * Invocato dal reactor quando il MainPool rifiuta il task: tutte le
+     * richieste accodate ricevono SERVER_BUSY invece di chiudere la connessione.
+     * Un'operazione in due passi eventualmente avviata viene annullata
+     */
+    protected static void reject(Session session) throws IOException {
+        int count = 0;
+        ByteBuffer request;
+        while((request = session.nextRequest()) != null){
+            session.negotiate(request);
+            session.releaseMessage(request);
+            Admission.exit();
+            session.send(encode(session, new Response(Error.SERVER_BUSY, Admission.retryAfter())));
+            count++;
+        }
+        session.clearMethod();
+        session.clearData();
+        Admission.rejected(count);
+        session.endRequests();
+    }
+
+    /*
+     * Legge il metodo dal JSON della richiesta senza deserializzarla.
+     * Restituisce null se il campo non viene trovato
+     */
+    private static Method sniffMethod(ByteBuffer request){
+        int limit = request.limit();
+        int i = indexOf(request, METHOD_KEY, request.position());
+        if(i < 0) return null;
+        i += METHOD_KEY.length;
+        //salta spazi e ':' fino all'apertura della stringa
+        while(i < limit && request.get(i) != '"'){
+            byte b = request.get(i++);
+            if(b != ':' && b != ' ' && b != '\t' && b != '\n' && b != '\r') return null;
+        }
+        int start = ++i;
+        while(i < limit && request.get(i) != '"') i++;
+        if(i >= limit) return null;
+        char[] name = new char[i - start];
+        for(int j = 0; j < name.length; j++)
+            name[j] = (char) request.get(start + j);
+        try{
+            return Method.valueOf(new String(name));
+        } catch(IllegalArgumentException e){
+            return null;
         }
     }
 
+    //prima occorrenza di pattern nel buffer a partire da from (accesso assoluto)
+    private static int indexOf(ByteBuffer buffer, byte[] pattern, int from){
+        int last = buffer.limit() - pattern.length;
+        outer:
+        for(int i = from; i <= last; i++){
+            for(int j = 0; j < pattern.length; j++){
+                if(buffer.get(i + j) != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Serializza la risposta in un pacchetto del pool con la lunghezza
+     * già scritta nell'header
+     */
+    private static ByteBuffer encode(Session session, Response response) throws IOException {
+        FrameWriter out = session.newFrame(FRAME_HINT);
+        try{
+            //gli hotel delle classifiche usano i byte già codificati
+            if(!EncodedHotel.writeResponse(out, response, session.Binary)){
+                if(session.Binary)  BinaryCodec.writeResponse(out, response);
+                else                Gson.toJson(response, Response.class, Gson.newJsonWriter(out));
+            }
+            return out.finish();
+        } catch(Exception e){
+            out.discard();
+            throw new IOException("Serializzazione della risposta fallita", e);
+        }
+    }
 
     /*
      * Metodi per la gestione delle richieste
@@ -134,14 +278,11 @@ public class RequestHandler implements Runnable{
 
     
     private static Response handleLogout(Request request, Session session) {
-        try{
-            LoggedTable.remove(session.Username);
-        } catch(NullPointerException e){
-            return new Response(Error.NOT_LOGGED);
-        } finally{
-            session.flush();
-        }
-        return new Response(Status.SUCCESS);
+        session.flush();
+        Resume.revoke(session);
+        return Sessions.remove(session) ?
+                    new Response(Status.SUCCESS) :
+                    new Response(Error.NOT_LOGGED);
     }
 
     /*
@@ -150,14 +291,9 @@ public class RequestHandler implements Runnable{
      * Metodo non utilizzato nell'implementazione attuale
      */
     private static Response handleIsLogged(Request request, Session session) {
-        try{
-            if(LoggedTable.containsKey(session.Username))
-                return new Response(Status.SUCCESS);
-        }
-        catch(NullPointerException e){
-            session.flush();
-        }
-        return new Response(Error.NOT_LOGGED);
+        return session.isLogged() ?
+                    new Response(Status.SUCCESS) :
+                    new Response(Error.NOT_LOGGED);
     }
     
 
@@ -171,22 +307,13 @@ public class RequestHandler implements Runnable{
         String[] data   = (String[]) request.getData();
 
         //I campi sono case insensitive
-        String city     = data[0].toLowerCase().trim();
-        String hotel    = data[1].toLowerCase().trim();
-        
-        ArrayList<Hotel> hmap = HotelsTable.get(city);
-        if(hmap == null) return new Response(Error.NO_SUCH_CITY);
-        /*
-        *    La ricerca sulla lista è sincronizzata perche il 
-        *    rank manager potrebbe modificare l'ordine
-        */
-        synchronized(hmap){
-            for(Hotel h : hmap){
-                if(h.name.toLowerCase().equals(hotel)) 
-                    return new Response(Status.SUCCESS,h.toDTO());
-            }
-            return new Response(Error.NO_SUCH_HOTEL);
-        }
+        City city = HotelsTable.get(City.normalize(data[0]));
+        if(city == null) return new Response(Error.NO_SUCH_CITY);
+        //ricerca nell'indice dei nomi: nessun lock sulla lista
+        Hotel h = city.find(City.normalize(data[1]));
+        if(h == null) return new Response(Error.NO_SUCH_HOTEL);
+        //stato dell'hotel nella classifica pubblicata, senza lock
+        return new Response(Status.SUCCESS, city.getSnapshot().get(h));
     }
 
     /*
@@ -194,73 +321,65 @@ public class RequestHandler implements Runnable{
      */
     private static Response handlePeek(Request request, Session session) {
         String[] data = (String[]) request.getData();
-        String city = data[0].toLowerCase().trim();
-        String hotel = data[1].trim();
-        
-        ArrayList<Hotel> hmap = HotelsTable.get(city);
-        if(hmap == null) return new Response(Error.NO_SUCH_CITY);
-        synchronized(hmap){
-            for(Hotel h : hmap){
-                if(h.name.toLowerCase().equals(hotel)) return new Response(Status.SUCCESS);
-            }
-            return new Response(Error.NO_SUCH_HOTEL);
-        }
+        City city = HotelsTable.get(City.normalize(data[0]));
+        if(city == null) return new Response(Error.NO_SUCH_CITY);
+        return city.find(City.normalize(data[1])) != null ?
+                    new Response(Status.SUCCESS) :
+                    new Response(Error.NO_SUCH_HOTEL);
     }
 
     /*
-     * Metodo che restituisce un batch di Hotels.
-     * 
-     * Utilizza la sessione per memorizzare l'intera lista e la restituisce al client
-     * in batch di dimensione DEF_BATCH_SIZE di HotelDTO.
+     * Metodo che restituisce la classifica di una città una pagina alla volta.
      * 
-     * Se prima invocazione setta LastMethod
+     * La prima invocazione contiene la città, eventualmente con la dimensione
+     * della pagina richiesta ([città, dimensione], al più MAX_PAGE_SIZE).
+     * La sessione memorizza solo un cursore sulla classifica pubblicata;
+     * le invocazioni successive (senza dati) restituiscono le pagine seguenti.
      * 
-     * Per ogni invocazione salva la lista dei rimanenti
+     * Una richiesta che contiene una città inizia sempre una nuova scansione
      */
-
-    @SuppressWarnings("unchecked")
     private static Response handleSearchAll(Request request, Session session) {
-        //Utilizza una coda per memorizzare la lista
-        Queue<HotelDTO> Snapshot = null;
+        RankCursor cursor;
+        Object data = request.getData();
 
         //Prima invocazione
-        if( session.LastMethod != Method.SEARCH_ALL){
-            Snapshot = new LinkedList<HotelDTO>();
-            String city = ((String) request.getData()).toLowerCase().trim();
-            ArrayList<Hotel> hmap = HotelsTable.get(city);
-            if(hmap == null) return new Response(Error.NO_SUCH_CITY);
-            /*
-             * Crea uno snapshot della lista
-             */
-            synchronized(hmap){
-                for(Hotel h : hmap){
-                    Snapshot.add(h.toDTO());
+        if(session.LastMethod != Method.SEARCH_ALL || data != null){
+            String name;
+            int pageSize = DEF_BATCH_SIZE;
+            if(data instanceof String){
+                name = (String) data;
+            } else if(data instanceof String[] && ((String[]) data).length == 2){
+                name = ((String[]) data)[0];
+                try{
+                    pageSize = Integer.parseInt(((String[]) data)[1]);
+                } catch(NumberFormatException e){
+                    return new Response(Error.INVALID_PARAMETER);
                 }
-            }
-            // 
+                if(pageSize <= 0) return new Response(Error.INVALID_PARAMETER);
+            } else return new Response(Error.INVALID_REQUEST);
+
+            City city = HotelsTable.get(City.normalize(name));
+            if(city == null) return new Response(Error.NO_SUCH_CITY);
+            cursor = new RankCursor(city.getSnapshot(), Math.min(pageSize, MAX_PAGE_SIZE));
             session.setMethod(Method.SEARCH_ALL);
-            session.setData(Snapshot);
+            session.setData(cursor);
         }
-        //recupera la lista dall'iteratore
+        //recupera il cursore dalla sessione
         else{
             /*
              * Errori della sessione. Questo if non dovrebbe mai essere falso
              */
-            if((session.getData() instanceof LinkedList<?>))
-                Snapshot = (LinkedList<HotelDTO>) session.getData();
+            if(session.getData() instanceof RankCursor)
+                cursor = (RankCursor) session.getData();
 
             else return new Response(Error.BAD_SESSION);
         }
 
-        HotelDTO[] batch = new HotelDTO[DEF_BATCH_SIZE];
-        //restituisco un batch di hotels
-        for(int i = 0; i< DEF_BATCH_SIZE; i++){
-            batch[i] = Snapshot.poll(); //La lista è ordinata [decrescente]
-            if(batch[i] == null) break;
-        }
+        //La classifica è ordinata [decrescente]
+        HotelDTO[] batch = cursor.next();
 
-        //Se la lista è vuota, la sessione viene pulita
-        if(Snapshot.isEmpty()){
+        //Se la classifica è terminata, la sessione viene pulita
+        if(!cursor.hasNext()){
             session.clearData();
             session.clearMethod();
             session.LastMethod = null;
@@ -269,14 +388,141 @@ public class RequestHandler implements Runnable{
     
     }
     
+    /*
+     * Restituisce in un solo pacchetto k hotel della classifica di una città
+     * a partire dalla posizione offset: [città, k] oppure [città, k, offset]
+     * 
+     * k non può superare MAX_PAGE_SIZE (parseCount), quindi un array più
+     * corto di k indica che la classifica è terminata. Non usa la sessione
+     */
+    private static Response handleTopK(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length != 2 && data.length != 3) return new Response(Error.INVALID_REQUEST);
+
+        int k       = parseCount(data[1]);
+        int offset  = data.length == 3 ? parseOffset(data[2]) : 0;
+        if(k < 0 || offset < 0) return new Response(Error.INVALID_PARAMETER);
+
+        City city = HotelsTable.get(City.normalize(data[0]));
+        if(city == null) return new Response(Error.NO_SUCH_CITY);
+        return new Response(Status.SUCCESS, city.getSnapshot().range(offset, k));
+    }
+
+    /*
+     * Numero di risultati richiesto da un client: -1 se non è un intero
+     * tra 1 e MAX_PAGE_SIZE. Un numero maggiore viene rifiutato e non
+     * troncato, altrimenti il client scambierebbe una risposta troncata
+     * per la fine dei risultati
+     */
+    private static int parseCount(String count) {
+        try{
+            int n = Integer.parseInt(count);
+            return n > 0 && n <= MAX_PAGE_SIZE ? n : -1;
+        } catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    //posizione iniziale di una pagina: -1 se non è un intero non negativo
+    private static int parseOffset(String offset) {
+        try{
+            return Math.max(Integer.parseInt(offset), -1);
+        } catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /*
+     * Completamento dei nomi di città e hotel: [prefisso, n]
+     * 
+     * Restituisce al più n corrispondenze (n al più MAX_PAGE_SIZE, parseCount)
+     * ordinate per rank, come coppie [città, hotel] consecutive in un array
+     * di stringhe. Per le città l'hotel è la stringa vuota
+     */
+    private static Response handleAutocomplete(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length != 2) return new Response(Error.INVALID_REQUEST);
+
+        int n = parseCount(data[1]);
+        if(n < 0) return new Response(Error.INVALID_PARAMETER);
+        return new Response(Status.SUCCESS, Names.complete(data[0], n));
+    }
+
+    /*
+     * Classifica nazionale: k hotel a partire dalla posizione offset,
+     * [k] oppure [k, offset]
+     * 
+     * La classifica contiene i primi global_top_size hotel. k non può
+     * superare MAX_PAGE_SIZE (parseCount), quindi un array più corto di k
+     * indica che la classifica è terminata. rank_position resta la
+     * posizione nella città
+     */
+    private static Response handleGlobalTop(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length != 1 && data.length != 2) return new Response(Error.INVALID_REQUEST);
+
+        int k       = parseCount(data[0]);
+        int offset  = data.length == 2 ? parseOffset(data[1]) : 0;
+        if(k < 0 || offset < 0) return new Response(Error.INVALID_PARAMETER);
+        return new Response(Status.SUCCESS, Global.range(offset, k));
+    }
+
+    /*
+     * Ricerca testuale su descrizioni e servizi: [query, n] oppure
+     * [query, n, città]
+     * 
+     * Restituisce al più n hotel (n al più MAX_PAGE_SIZE, parseCount) che
+     * contengono almeno un termine della query, ordinati per punteggio
+     */
+    private static Response handleSearchText(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length != 2 && data.length != 3) return new Response(Error.INVALID_REQUEST);
+
+        int n = parseCount(data[1]);
+        if(n < 0) return new Response(Error.INVALID_PARAMETER);
+
+        City city = null;
+        if(data.length == 3){
+            city = HotelsTable.get(City.normalize(data[2]));
+            if(city == null) return new Response(Error.NO_SUCH_CITY);
+        }
+        return new Response(Status.SUCCESS, Text.search(data[0], city, n));
+    }
+
+    /*
+     * Hotel di una città che offrono tutti i servizi indicati:
+     * [città, n, servizio, ...]
+     * 
+     * Restituisce al più n hotel (n al più MAX_PAGE_SIZE, parseCount) in
+     * ordine di classifica. Senza servizi equivale a TOP_K
+     */
+    private static Response handleSearchFilter(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length < 2) return new Response(Error.INVALID_REQUEST);
+
+        int n = parseCount(data[1]);
+        if(n < 0) return new Response(Error.INVALID_PARAMETER);
+
+        City city = HotelsTable.get(City.normalize(data[0]));
+        if(city == null) return new Response(Error.NO_SUCH_CITY);
+        String[] services = Arrays.copyOfRange(data, 2, data.length);
+        return new Response(Status.SUCCESS, Services.filter(city, services, n));
+    }
+
     /*
      * Restituisce il badge dell'utente se questo è loggato
      */
     private static Response handleShowBadge(Request request, Session session) {
-        if(!LoggedTable.containsKey(session.Username))
+        String username = session.Username;
+        if(username == null)
             return new Response(Error.NOT_LOGGED);
         try{
-            return new Response(Status.SUCCESS,UsersTable.get(session.Username).getBadge().toString());
+            return new Response(Status.SUCCESS,UsersTable.get(username).getBadge().toString());
         } catch(NullPointerException e){    //l'eccezione non dovrebbe mai essere sollevata
             return new Response(Error.NO_SUCH_USER);
         }
@@ -286,6 +532,10 @@ public class RequestHandler implements Runnable{
      * Effettua il Logout da tutti i dispositivi
      * 
      * Metodo a due passaggi
+     * 
+     * Le altre connessioni dell'utente vengono chiuse dai loro reactor,
+     * quella corrente resta aperta senza utente. I token di RESUME
+     * dell'utente vengono revocati
      */
     private static Response handleExtLogout(Request request, Session session) {
         // Prima invocazione del metodo 
@@ -306,11 +556,11 @@ public class RequestHandler implements Runnable{
         else{
             String password = (String) request.getData();
             String username = (String) session.Data;
-            session.flush();
             try{
                 User u = UsersTable.get(username);
                 if(u.passwordTest(password)){
-                    return LoggedTable.remove(username) == null ? 
+                    Resume.revokeAll(username);
+                    return Sessions.removeAll(username, session) == 0 ? 
                        new Response(Error.NOT_LOGGED) : 
                        new Response(Status.SUCCESS);
                 }
@@ -337,7 +587,7 @@ public class RequestHandler implements Runnable{
                 User u = UsersTable.get(username);
                 if(u == null) 
                     return new Response(Error.NO_SUCH_USER);
-                else if(LoggedTable.containsKey(username)) 
+                else if(session.isLogged() || Sessions.isFull(username)) 
                     return new Response(Error.ALREADY_LOGGED);
                 else{
                     session.Data = username;
@@ -354,12 +604,12 @@ public class RequestHandler implements Runnable{
             String username = (String) session.Data;
             try {
                 User u = UsersTable.get(username);
-                if(LoggedTable.containsKey(username)) 
+                if(Sessions.isFull(username)) 
                     return new Response(Error.ALREADY_LOGGED);
                 else if(u.passwordTest(password)){
-                    LoggedTable.put(username,true);
-                    session.Username = username;
-                    return new Response(Status.SUCCESS);
+                    return Sessions.add(session, username) ?
+                                new Response(Status.SUCCESS, Resume.issue(session)) :
+                                new Response(Error.ALREADY_LOGGED);
                 }
                 else return new Response(Error.BAD_PASSWD);
             } catch (NullPointerException e){
@@ -371,6 +621,57 @@ public class RequestHandler implements Runnable{
         }
     }
 
+    /*
+     * Login in un solo pacchetto: [username, hash]
+     * 
+     * L'hash è calcolato dal client con il salt ricevuto in un login
+     * precedente. Se non corrisponde la risposta è AWAIT_INPUT con il salt
+     * corrente, con cui il client può riprovare. La sessione non conserva
+     * alcuno stato intermedio
+     */
+    private static Response handleLoginFast(Request request, Session session) {
+        if(!(request.getData() instanceof String[])) return new Response(Error.INVALID_REQUEST);
+        String[] data = (String[]) request.getData();
+        if(data.length != 2 || data[0] == null) return new Response(Error.INVALID_REQUEST);
+
+        String username = data[0];
+        User u = UsersTable.get(username);
+        if(u == null)
+            return new Response(Error.NO_SUCH_USER);
+        else if(Sessions.isFull(username))
+            return new Response(Error.ALREADY_LOGGED);
+        else if(!u.passwordTest(data[1]))
+            return new Response(Status.AWAIT_INPUT, u.salt);
+
+        if(!Sessions.add(session, username))
+            return new Response(Error.ALREADY_LOGGED);
+        return new Response(Status.SUCCESS, Resume.issue(session));
+    }
+
+    /*
+     * Riprende la sessione di un utente con il token ricevuto all'ultimo
+     * login o ripresa, senza ripetere l'autenticazione
+     * 
+     * La risposta contiene il nuovo token, che sostituisce il precedente.
+     * Un token sconosciuto, scaduto o già usato restituisce BAD_SESSION: il
+     * client deve effettuare il login. Il token è consumato anche se la
+     * ripresa fallisce. Se la connessione che aveva ricevuto il token è
+     * ancora registrata (il server non ne ha rilevato la caduta) viene
+     * sostituita e chiusa
+     */
+    private static Response handleResume(Request request, Session session) {
+        if(!(request.getData() instanceof String)) return new Response(Error.INVALID_REQUEST);
+        if(session.isLogged()) return new Response(Error.ALREADY_LOGGED);
+
+        String token = (String) request.getData();
+        ResumeTokens.Grant grant = Resume.take(token);
+        if(grant == null || !UsersTable.containsKey(grant.Username))
+            return new Response(Error.BAD_SESSION);
+        if(!Sessions.replace(grant.Holder, session, grant.Username))
+            return new Response(Error.ALREADY_LOGGED);
+        return new Response(Status.SUCCESS, Resume.issue(session));
+    }
+
     /*
      * Effettua la registrazione dell'utente
      * 
@@ -439,29 +740,20 @@ public class RequestHandler implements Runnable{
     private static Response handleReview(Request request, Session session){
         //prima invocazione
         if(session.getMethod() != Method.REVIEW){
-            String username = session.Username;
             //controllo che l'utente sia loggato
-            if(username == null || !LoggedTable.containsKey(username))
+            if(!session.isLogged())
                 return new Response(Error.MUST_LOGIN);
             
             String[] data = (String[]) request.getData();
-            String city     = data[0].toLowerCase().trim();
-            String hotel    = data[1].toLowerCase().trim();
-            
-            ArrayList<Hotel> Hmap = HotelsTable.get(city);
-            if(Hmap == null)    return new Response(Error.NO_SUCH_CITY);
-            
-            synchronized(Hmap){
-                for(Hotel h : Hmap){
-                    if(h.name.toLowerCase().equals(hotel)){
-                        session.setData(h.id);
-                        session.setMethod(Method.REVIEW);
-                        return new Response(Status.SUCCESS);
-                    }
-                }
-                return new Response(Error.NO_SUCH_HOTEL);
-            }
-            
+            City city = HotelsTable.get(City.normalize(data[0]));
+            if(city == null)    return new Response(Error.NO_SUCH_CITY);
+
+            Hotel h = city.find(City.normalize(data[1]));
+            if(h == null)       return new Response(Error.NO_SUCH_HOTEL);
+            session.setData(h.id);
+            session.setMethod(Method.REVIEW);
+            return new Response(Status.SUCCESS);
+
         }
         //seconda invocazione
         else{
@@ -470,33 +762,31 @@ public class RequestHandler implements Runnable{
                 return new Response(Error.INVALID_REQUEST); //non dovrebbe mai succedere
             Score score = (Score) maybeScore;
             //Controlla la validità del punteggio
-            if      (!score.isValidCleaning())  return new  Response(Error.SCORE_CLEANING);
-            else if (!score.isValidGlobal())    return new  Response(Error.SCORE_GLOBAL);
-            else if (!score.isValidPosition())  return new  Response(Error.SCORE_POSITION);
-            else if (!score.isValidPrice())     return new  Response(Error.SCORE_PRICE);
-            else if (!score.isValidService())   return new  Response(Error.SCORE_SERVICE);
+            Error invalid = checkScore(score);
+            if(invalid != Error.NO_ERR) return new Response(invalid);
 
             int user_exp, hotelID;
+            //l'utente potrebbe essere stato disconnesso da EXT_LOGOUT tra i due passaggi
+            String username = session.Username;
+            if(username == null){
+                session.flush();
+                return new Response(Error.MUST_LOGIN);
+            }
 
             //recupera l'esperienza dell'utente e l'ID dell'hotel
             try{
                 hotelID = (int) session.getData();
-                user_exp = UsersTable.get(session.Username).getExperience();
+                user_exp = UsersTable.get(username).getExperience();
             } catch(NullPointerException e){
                 return new Response(Error.NO_SUCH_USER);
             } catch(ClassCastException e){
                 return new Response(Error.BAD_SESSION);
             }
             try{
-                ReviewsTable.compute(hotelID,(key,value) -> {
-                    //la lista delle recensioni viene cancellata dal rank manager periodicamente
-                    if(value == null) value = new ArrayList<Review>();
-                    value.add(new Review(hotelID,session.Username,user_exp,LocalDateTime.now(),score));
-                    return value;
-                });
-                return new Response(Status.SUCCESS);
-            } catch(Exception e){
-                return new Response(Error.SERVER_ERROR);
+                //le recensioni vengono prelevate dal rank manager periodicamente
+                return Reviews.add(new Review(hotelID,username,user_exp,LocalDateTime.now(),score)) ?
+                            new Response(Status.SUCCESS) :
+                            new Response(Error.NO_SUCH_HOTEL);
             } finally{
                 session.clearData();
                 session.clearMethod();
@@ -506,6 +796,63 @@ public class RequestHandler implements Runnable{
         
     }
 
+    //primo punteggio non valido, NO_ERR se il punteggio è valido
+    private static Error checkScore(Score score) {
+        if      (!score.isValidCleaning())  return Error.SCORE_CLEANING;
+        else if (!score.isValidGlobal())    return Error.SCORE_GLOBAL;
+        else if (!score.isValidPosition())  return Error.SCORE_POSITION;
+        else if (!score.isValidPrice())     return Error.SCORE_PRICE;
+        else if (!score.isValidService())   return Error.SCORE_SERVICE;
+        return Error.NO_ERR;
+    }
+
+    /*
+     * Inserimento di un lotto di recensioni in un solo pacchetto:
+     * array di ReviewEntry (città, hotel, punteggio), al più MAX_REVIEW_BATCH
+     * 
+     * Le recensioni valide vengono aggiunte una per una ai buffer dei loro
+     * hotel, senza lock. Restituisce un codice per ogni recensione
+     * (NO_ERR se inserita)
+     */
+    private static Response handleReviewBatch(Request request, Session session) {
+        String username = session.Username;
+        if(username == null)
+            return new Response(Error.MUST_LOGIN);
+        if(!(request.getData() instanceof ReviewEntry[])) return new Response(Error.INVALID_REQUEST);
+        ReviewEntry[] entries = (ReviewEntry[]) request.getData();
+        if(entries.length > MAX_REVIEW_BATCH) return new Response(Error.INVALID_PARAMETER);
+
+        User user = UsersTable.get(username);
+        if(user == null) return new Response(Error.NO_SUCH_USER);
+        int user_exp = user.getExperience();
+        LocalDateTime now = LocalDateTime.now();
+
+        Error[] result = new Error[entries.length];
+        for(int i = 0; i < entries.length; i++){
+            ReviewEntry entry = entries[i];
+            if(entry == null || entry.city == null || entry.hotel == null || entry.score == null){
+                result[i] = Error.INVALID_PARAMETER;
+                continue;
+            }
+            City city = HotelsTable.get(City.normalize(entry.city));
+            if(city == null){
+                result[i] = Error.NO_SUCH_CITY;
+                continue;
+            }
+            Hotel h = city.find(City.normalize(entry.hotel));
+            if(h == null){
+                result[i] = Error.NO_SUCH_HOTEL;
+                continue;
+            }
+            result[i] = checkScore(entry.score);
+            if(result[i] != Error.NO_ERR) continue;
+
+            if(!Reviews.add(new Review(h.id, username, user_exp, now, entry.score)))
+                result[i] = Error.NO_SUCH_HOTEL;
+        }
+        return new Response(Status.SUCCESS, result);
+    }
+
     
     
 }
@@ -0,0 +1,144 @@
+package serverUtil;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/*
+ * Token di ripresa della sessione (RESUME)
+ *
+ * A ogni login la sessione riceve un token opaco che, entro Ttl ms,
+ * permette a una nuova connessione di riprenderla senza ripetere il login.
+ * Ogni sessione ha al più un token e ogni utente al più MaxPerUser (come
+ * le sue connessioni): oltre si scarta il più vecchio. Una ripresa consuma
+ * il token con take, che lo rimuove e lo restituisce in un solo passo:
+ * due riprese concorrenti con lo stesso token non possono riuscire
+ * entrambe. Il logout revoca il token della sessione e EXT_LOGOUT tutti
+ * quelli dell'utente.
+ *
+ * La voce ricorda la sessione a cui è stato emesso il token solo finché
+ * è aperta: alla chiusura della connessione (detach) il riferimento viene
+ * rilasciato e il token resta valido per la sola ripresa.
+ *
+ * Tutti i token hanno la stessa durata, quindi l'ordine di inserimento è
+ * anche l'ordine di scadenza: i token scaduti si eliminano dalla testa
+ * a ogni emissione. Oltre Capacity token si elimina il più vecchio, che
+ * tornerà al login completo. Le operazioni sono O(1) ammortizzate sotto
+ * un unico lock, che protegge anche Session.ResumeToken
+ */
+public class ResumeTokens {
+
+    private static final int TOKEN_BYTES = 16;
+
+    private final int       Capacity;
+    private final int       MaxPerUser;
+    private final long      Ttl;        //durata dei token (ms), 0 = disattivati
+    private final SecureRandom Random;
+    //token -> voce, in ordine di emissione
+    private final LinkedHashMap<String, Grant>          Tokens;
+    //utente -> token validi, in ordine di emissione
+    private final HashMap<String, ArrayDeque<String>>   ByUser;
+
+    //utente e sessione a cui è stato emesso un token
+    protected static class Grant {
+        final String    Username;
+        Session         Holder;     //null se la connessione è stata chiusa
+        final long      Deadline;
+
+        Grant(String username, Session holder, long deadline) {
+            this.Username   = username;
+            this.Holder     = holder;
+            this.Deadline   = deadline;
+        }
+    }
+
+    public ResumeTokens(int capacity, long ttl, int maxPerUser) {
+        this.Capacity   = capacity;
+        this.Ttl        = ttl;
+        this.MaxPerUser = maxPerUser;
+        this.Random     = new SecureRandom();
+        this.Tokens     = new LinkedHashMap<>();
+        this.ByUser     = new HashMap<>();
+    }
+
+    /*
+     * Emette un nuovo token per la sessione autenticata, sostituendo il
+     * precedente. Restituisce null se i token sono disattivati
+     */
+    public String issue(Session session) {
+        String username = session.Username;
+        if(Ttl <= 0 || username == null) return null;
+        byte[] bytes = new byte[TOKEN_BYTES];
+        Random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = System.currentTimeMillis();
+
+        synchronized(this){
+            purge(now);
+            remove(session.ResumeToken);
+            ArrayDeque<String> tokens = ByUser.computeIfAbsent(username, u -> new ArrayDeque<>(MaxPerUser));
+            while(tokens.size() >= MaxPerUser) remove(tokens.peekFirst());
+            tokens.addLast(token);
+            //una chiusura concorrente ha già eseguito detach o lo eseguirà dopo
+            Tokens.put(token, new Grant(username, session.Closed ? null : session, now + Ttl));
+            session.ResumeToken = token;
+            //capacità superata: si elimina il token più vecchio
+            if(Tokens.size() > Capacity) remove(Tokens.keySet().iterator().next());
+        }
+        return token;
+    }
+
+    /*
+     * Consuma il token e ne restituisce la voce, o null se il token è
+     * sconosciuto, scaduto o già consumato
+     */
+    public synchronized Grant take(String token) {
+        Grant grant = remove(token);
+        if(grant == null || grant.Deadline <= System.currentTimeMillis()) return null;
+        return grant;
+    }
+
+    //revoca il token della sessione (logout)
+    public synchronized void revoke(Session session) {
+        remove(session.ResumeToken);
+    }
+
+    //la sessione è stata chiusa: il suo token non la trattiene più
+    public synchronized void detach(Session session) {
+        if(session.ResumeToken == null) return;
+        Grant grant = Tokens.get(session.ResumeToken);
+        if(grant != null) grant.Holder = null;
+    }
+
+    //revoca tutti i token dell'utente (EXT_LOGOUT)
+    public synchronized void revokeAll(String username) {
+        ArrayDeque<String> tokens = ByUser.get(username);
+        while(tokens != null && !tokens.isEmpty()) remove(tokens.peekFirst());
+    }
+
+    public synchronized int size() {
+        return Tokens.size();
+    }
+
+    //elimina i token scaduti dalla testa
+    private void purge(long now) {
+        while(!Tokens.isEmpty()){
+            String token = Tokens.keySet().iterator().next();
+            if(Tokens.get(token).Deadline > now) return;
+            remove(token);
+        }
+    }
+
+    private Grant remove(String token) {
+        if(token == null) return null;
+        Grant grant = Tokens.remove(token);
+        if(grant == null) return null;
+        ArrayDeque<String> tokens = ByUser.get(grant.Username);
+        tokens.remove(token);
+        if(tokens.isEmpty()) ByUser.remove(grant.Username);
+        if(grant.Holder != null && token.equals(grant.Holder.ResumeToken)) grant.Holder.ResumeToken = null;
+        return grant;
+    }
+}
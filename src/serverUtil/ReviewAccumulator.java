@@ -0,0 +1,198 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/*
+ * Recensioni in attesa di essere conteggiate dal RankManager
+ *
+ * Ogni hotel ha un buffer in cui i worker aggiungono recensioni senza
+ * lock e da cui il RankManager (unico consumatore) le preleva tutte a ogni
+ * ciclo. I buffer sono trovati per id dell'hotel in una tabella a
+ * indirizzamento aperto su int, costruita all'avvio e poi solo letta.
+ *
+ * Il buffer è una catena di blocchi (Chunk), dal più recente (Tail) al
+ * più vecchio (Prev). Un produttore prenota una posizione nel blocco
+ * corrente con un getAndIncrement, che non fallisce mai anche con molti
+ * worker sullo stesso hotel, e poi vi scrive la recensione. Chi trova il
+ * blocco pieno ne installa uno nuovo, di capacità doppia, con un CAS su Tail.
+ * Il primo blocco dopo un prelievo è dimensionato sulle recensioni prelevate
+ * l'ultima volta, così un hotel molto recensito non riparte da MIN_CHUNK.
+ *
+ * Il prelievo stacca l'intera catena con un getAndSet di Tail a null e
+ * sigilla il blocco staccato: i produttori che lo avevano letto prima del
+ * prelievo e prenotano dopo trovano il blocco pieno e riprovano sul nuovo.
+ * Le posizioni prenotate prima del sigillo vengono attese finché il loro
+ * produttore non ha scritto la recensione.
+ *
+ * Il produttore che trova il buffer vuoto aggiunge l'hotel alla lista degli
+ * hotel modificati (uno stack lock-free): il RankManager la preleva a ogni
+ * ciclo con takeDirty e aggiorna solo quegli hotel. Un hotel è nella lista
+ * al più una volta, perché vi rientra solo dopo essere stato svuotato
+ */
+public class ReviewAccumulator {
+
+    private static final int MIN_CHUNK  = 8;
+    private static final int MAX_CHUNK  = 1024;
+    //aggiunto alle prenotazioni di un blocco staccato: nessuna posizione è più valida
+    private static final int SEALED     = 1 << 30;
+
+    private final int[]     Keys;       //id degli hotel
+    private final Buffer[]  Buffers;
+    private final int       Mask;
+    //ultimo hotel aggiunto alla lista dei modificati
+    private final AtomicReference<Buffer> Dirty = new AtomicReference<>();
+    private static final AtomicReferenceFieldUpdater<Buffer, Chunk> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(Buffer.class, Chunk.class, "Tail");
+
+    private static final class Chunk {
+        final AtomicReferenceArray<Review>  Items;
+        final AtomicInteger                 Claimed;    //posizioni prenotate
+        final Chunk                         Prev;       //blocco precedente, pieno
+
+        //il blocco nasce con la recensione di chi lo installa, pubblicata dal CAS su Tail
+        Chunk(int capacity, Chunk prev, Review first) {
+            this.Items      = new AtomicReferenceArray<>(capacity);
+            this.Claimed    = new AtomicInteger(1);
+            this.Prev       = prev;
+            Items.lazySet(0, first);
+        }
+    }
+
+    private static final class Buffer {
+        final Hotel Target;
+        //blocco corrente, null se non ci sono recensioni in attesa
+        volatile Chunk Tail;
+        //successivo nella lista dei modificati, pubblicato dal CAS su Dirty
+        Buffer Next;
+        //capacità del primo blocco dopo un prelievo, scritta solo dal consumatore
+        int Hint = MIN_CHUNK;
+
+        Buffer(Hotel target) {
+            this.Target = target;
+        }
+    }
+
+    public ReviewAccumulator(Collection<City> cities) {
+        int hotels = 0;
+        for(City city : cities) hotels += city.getSnapshot().size();
+        int size = Integer.highestOneBit(Math.max(1, 2 * hotels - 1)) << 1;
+        this.Keys       = new int[size];
+        this.Buffers    = new Buffer[size];
+        this.Mask       = size - 1;
+        for(City city : cities){
+            for(Hotel h : city.getSnapshot().Hotels){
+                int slot = slot(h.id);
+                while(Buffers[slot] != null && Keys[slot] != h.id) slot = (slot + 1) & Mask;
+                Keys[slot]      = h.id;
+                Buffers[slot]   = new Buffer(h);
+            }
+        }
+    }
+
+    /*
+     * Aggiunge la recensione al buffer del suo hotel.
+     * Restituisce false se l'hotel non esiste
+     */
+    public boolean add(Review review) {
+        Buffer buffer = find(review.HotelId);
+        if(buffer == null) return false;
+        while(true){
+            Chunk chunk = buffer.Tail;
+            if(chunk != null){
+                int index = chunk.Claimed.getAndIncrement();
+                if(index < chunk.Items.length()){
+                    //il consumatore legge la posizione con una lettura volatile
+                    chunk.Items.lazySet(index, review);
+                    return true;
+                }
+            }
+            //buffer vuoto o blocco pieno: la recensione apre un nuovo blocco
+            Chunk next = chunk == null ?
+                            new Chunk(buffer.Hint, null, review) :
+                            new Chunk(Math.min(2 * chunk.Items.length(), MAX_CHUNK), chunk, review);
+            if(TAIL.compareAndSet(buffer, chunk, next)){
+                if(chunk == null) markDirty(buffer);
+                return true;
+            }
+        }
+    }
+
+    private void markDirty(Buffer buffer) {
+        Buffer head;
+        do{
+            head = Dirty.get();
+            buffer.Next = head;
+        } while(!Dirty.compareAndSet(head, buffer));
+    }
+
+    /*
+     * Preleva la lista degli hotel con recensioni in attesa, aggiungendoli
+     * a out. Restituisce il numero di hotel. Invocato solo dal RankManager,
+     * che poi ne preleva le recensioni con drainTo
+     */
+    public int takeDirty(ArrayList<Hotel> out) {
+        int start = out.size();
+        //la lista va percorsa tutta prima dei prelievi: un hotel svuotato
+        //può rientrare subito in una nuova lista e sovrascrivere Next
+        for(Buffer buffer = Dirty.getAndSet(null); buffer != null; ){
+            Buffer next = buffer.Next;
+            buffer.Next = null;
+            out.add(buffer.Target);
+            buffer = next;
+        }
+        return out.size() - start;
+    }
+
+    /*
+     * Preleva tutte le recensioni dell'hotel, nell'ordine in cui sono state
+     * prenotate, aggiungendole a out. Restituisce il numero di recensioni.
+     * Invocato solo dal RankManager e solo per gli hotel restituiti da
+     * takeDirty, altrimenti un hotel potrebbe entrare due volte nella lista
+     */
+    public int drainTo(int hotelId, ArrayList<Review> out) {
+        Buffer buffer = find(hotelId);
+        if(buffer == null || buffer.Tail == null) return 0;
+        Chunk chunk = TAIL.getAndSet(buffer, null);
+        if(chunk == null) return 0;
+
+        //blocchi dal più vecchio; solo l'ultimo può essere incompleto
+        ArrayList<Chunk> chain = new ArrayList<>();
+        for(Chunk c = chunk; c != null; c = c.Prev) chain.add(c);
+        int start = out.size();
+        for(int i = chain.size() - 1; i >= 0; i--){
+            Chunk c = chain.get(i);
+            int claimed = c == chunk ? c.Claimed.getAndAdd(SEALED) : c.Claimed.get();
+            int count = Math.min(claimed, c.Items.length());
+            for(int j = 0; j < count; j++) out.add(await(c.Items, j));
+        }
+        int drained = out.size() - start;
+        buffer.Hint = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, Integer.highestOneBit(drained)));
+        return drained;
+    }
+
+    //attende che il produttore che ha prenotato la posizione vi scriva
+    private static Review await(AtomicReferenceArray<Review> items, int index) {
+        Review review;
+        for(int spins = 0; (review = items.get(index)) == null; spins++){
+            if(spins < 64) Thread.onSpinWait();
+            else Thread.yield();
+        }
+        return review;
+    }
+
+    private Buffer find(int hotelId) {
+        for(int slot = slot(hotelId); Buffers[slot] != null; slot = (slot + 1) & Mask)
+            if(Keys[slot] == hotelId) return Buffers[slot];
+        return null;
+    }
+
+    private int slot(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & Mask;
+    }
+}
@@ -39,10 +39,25 @@ public class ServerContext {
     protected static String MULTI_ADDR;
     protected static int MULTI_PORT;
 
+    // Parametri dei reactor di I/O (0 = un solo selettore per accept e I/O)
+    protected static int    REACTOR_COUNT   = Runtime.getRuntime().availableProcessors();
+    protected static String REACTOR_BALANCE = "round_robin";
+
     //parametri per la registrazione
     protected static int SALT_LENGTH = 8;
     protected static String USERNAME_REGEX = "^[A-Za-z0-9_-]+$";
 
+    // Token di ripresa della sessione (RESUME)
+    protected static long   RESUME_TTL          = 600000;   // durata in ms (0 = disattivati)
+    protected static int    RESUME_MAX_TOKENS   = 65536;    // token mantenuti al più
+    protected static int    MAX_USER_SESSIONS   = 1;        // connessioni autenticate per utente
+
+    // Timeout delle connessioni in ms (0 = disattivato) e parametri della TimerWheel
+    protected static long   IDLE_TIMEOUT        = 300000;   // nessuna richiesta ricevuta
+    protected static long   HALF_OPEN_TIMEOUT   = 30000;    // pacchetto incompleto o risposte non lette
+    protected static long   TIMER_TICK          = 1000;
+    protected static int    TIMER_SLOTS         = 512;
+
     // Parametri del MainThreadPool
     protected static ExecutorService    MainPool;
     private static int      POOL_MAXSIZE        = Integer.MAX_VALUE;
@@ -50,6 +65,13 @@ public class ServerContext {
     private static long     POOL_KEEP_ALIVE     = 60;
     private static int      POOL_QUEUESIZE      = 10000;
     private static long     POOL_AWAIT          = 1;
+    // Modalità del MainPool: "platform" (ThreadPoolExecutor) o "virtual" (un virtual thread per task)
+    private static String   POOL_MODE           = "platform";
+    private static int      POOL_MAX_CONCURRENCY= 0;    // limite dei task contemporanei in modalità virtual (0 = nessuno)
+    // Controllo di ammissione: richieste in attesa oltre cui il server scarta il carico
+    protected static int    ADMISSION_HIGH      = 4096;     // 0 = disattivato
+    protected static int    ADMISSION_LOW       = 2048;
+    protected static long   RETRY_AFTER         = 100;      // attesa suggerita con SERVER_BUSY (ms)
     private static final TimeUnit TIME_KEEP_ALIVE = TimeUnit.MILLISECONDS;
     private static final TimeUnit AWAIT_UNIT = TimeUnit.MILLISECONDS;
 
@@ -72,12 +94,16 @@ public class ServerContext {
     private static long RANK_INIT           = 1000;
     private static long SAVE_DELAY          = 10000;
     private static long RANK_DELAY          = 10000;
+    private static long METRICS_DELAY       = 0;        // intervallo di stampa delle metriche (0 = disattivato)
     private static final TimeUnit TIME_DELAY = TimeUnit.MILLISECONDS;
 
     //Parametri per il BufferPool e packetLength
-    protected static int PACKET_LENGTH      = 2048;
-    protected static int BUFFER_POOL_SIZE   = 10;
-    protected static int ALLOC_TRESHOLD     = 10;
+    protected static int PACKET_LENGTH          = 2048;
+    protected static int BUFFER_POOL_SIZE       = 10;       // buffer mantenuti per classe di dimensione
+    protected static int BUFFER_MIN_SIZE        = 64;       // classe di dimensione più piccola
+    protected static int BUFFER_MAX_SIZE        = 1 << 20;  // classe di dimensione più grande
+    protected static int BUFFER_THREAD_CACHE    = 8;        // buffer per classe nella cache dei thread
+    protected static boolean BUFFER_DIRECT      = false;    // buffer fuori heap
 
     // Parametri per i percorsi dei file
     protected static String Hotelsfrom      = null;
@@ -89,13 +115,22 @@ public class ServerContext {
 
     //parametri per RequestHandler
     protected static int MAX_BATCH_SIZE     = 10;
+    protected static int MAX_PAGE_SIZE      = 100;  // pagina massima richiesta dal client
+    protected static int GLOBAL_TOP_SIZE    = 100;  // hotel della classifica nazionale
+    protected static int MAX_REVIEW_BATCH   = 256;  // recensioni per pacchetto REVIEW_BATCH
+    protected static int PIPELINE_WINDOW    = 8;    // richieste in volo per connessione
 
     // Tabelle e code
-    protected static ConcurrentHashMap<String, ArrayList<Hotel>>    HotelsTable;
+    protected static ConcurrentHashMap<String, City>                HotelsTable;
     protected static ConcurrentHashMap<String, User>                UsersTable;
-    protected static ConcurrentHashMap<String, Boolean>             LoggedTable; // Non si tiene traccia dei valori
-    protected static ConcurrentHashMap<Integer, ArrayList<Review>>  ReviewsTable;
+    protected static SessionRegistry            Sessions;   // sessioni autenticate di ogni utente
+    protected static ResumeTokens               Resume;     // token per riprendere la sessione dopo una disconnessione
+    protected static ReviewAccumulator          Reviews;    // recensioni da conteggiare, creato dopo gli hotel
     protected static LinkedBlockingQueue<Review> DumpingQueue;
+    protected static NameIndex                  Names;      // indice per AUTOCOMPLETE, creato dopo gli hotel
+    protected static TextIndex                  Text;       // indice per SEARCH_TEXT, creato dopo gli hotel
+    protected static ServiceIndex               Services;   // indice per SEARCH_FILTER, creato dopo gli hotel
+    protected static GlobalRanking              Global;     // classifica nazionale, aggiornata dal RankManager
 
     //Costruttore privato
     private ServerContext(String filepath) {
@@ -108,23 +143,46 @@ public class ServerContext {
         }
 
         // Inizializza i thread pool
-        MainPool = new ThreadPoolExecutor   (   POOL_CORESIZE, 
-                                                POOL_MAXSIZE, 
-                                                POOL_KEEP_ALIVE, 
-                                                TIME_KEEP_ALIVE, 
-                                                new ArrayBlockingQueue<>(POOL_QUEUESIZE)
-                                            );
+        if(POOL_MODE.equals("virtual"))
+            MainPool = newVirtualPool();
+        if(MainPool == null)
+            MainPool = new ThreadPoolExecutor   (   POOL_CORESIZE, 
+                                                    POOL_MAXSIZE, 
+                                                    POOL_KEEP_ALIVE, 
+                                                    TIME_KEEP_ALIVE, 
+                                                    new ArrayBlockingQueue<>(POOL_QUEUESIZE)
+                                                );
         FileHandlerPool = Executors.newScheduledThreadPool(FILE_POOL_CORESIZE);
         RankingPool     = Executors.newSingleThreadScheduledExecutor();
 
         // Inizializza le tabelle e le code
         HotelsTable     = new ConcurrentHashMap<>();
         UsersTable      = new ConcurrentHashMap<>();
-        LoggedTable     = new ConcurrentHashMap<>();
-        ReviewsTable    = new ConcurrentHashMap<>();
+        Sessions        = new SessionRegistry(MAX_USER_SESSIONS);
+        Resume          = new ResumeTokens(RESUME_MAX_TOKENS, RESUME_TTL, MAX_USER_SESSIONS);
         DumpingQueue    = new LinkedBlockingQueue<>();
     }
 
+    /*
+     * Crea un executor con un virtual thread per ogni task, eventualmente
+     * limitato a POOL_MAX_CONCURRENCY task contemporanei.
+     *
+     * L'executor viene ottenuto tramite reflection per poter compilare ed
+     * eseguire il server anche su JVM senza virtual thread: in tal caso
+     * restituisce null e si utilizza il pool di piattaforma
+     */
+    private static ExecutorService newVirtualPool() {
+        try{
+            ExecutorService virtual = (ExecutorService) Executors.class
+                                        .getMethod("newVirtualThreadPerTaskExecutor")
+                                        .invoke(null);
+            return POOL_MAX_CONCURRENCY > 0 ? new LimitedExecutor(virtual, POOL_MAX_CONCURRENCY) : virtual;
+        } catch(ReflectiveOperationException e){
+            System.out.println("Virtual thread non supportati dalla JVM: utilizzo del pool di piattaforma");
+            return null;
+        }
+    }
+
     /**
      * Restituisce l'istanza singleton di `ServerContext`.
      * 
@@ -164,9 +222,12 @@ public class ServerContext {
         POOL_KEEP_ALIVE     = loadArg.getLongAttribute  ("pool_keepalive",  POOL_KEEP_ALIVE);
         POOL_QUEUESIZE      = loadArg.getIntAttribute   ("pool_queue_size", POOL_QUEUESIZE);
         POOL_AWAIT          = loadArg.getLongAttribute  ("pool_await",      POOL_AWAIT);
+        POOL_MODE           = loadArg.getStringAttribute("pool_mode",       POOL_MODE);
+        POOL_MAX_CONCURRENCY= loadArg.getIntAttribute   ("pool_max_concurrency", POOL_MAX_CONCURRENCY);
         FILE_POOL_CORESIZE  = loadArg.getIntAttribute   ("file_coresize",   FILE_POOL_CORESIZE);
         SAVE_DELAY          = loadArg.getLongAttribute  ("save_delay",      SAVE_DELAY);
         RANK_DELAY          = loadArg.getLongAttribute  ("rank_delay",      RANK_DELAY);
+        METRICS_DELAY       = loadArg.getLongAttribute  ("metrics_delay",   METRICS_DELAY);
         SAVE_INIT           = loadArg.getLongAttribute  ("save_init",       SAVE_INIT);
         RANK_INIT           = loadArg.getLongAttribute  ("rank_init",       RANK_INIT);
         EXP_MULTIPLIER      = loadArg.getDoubleAttribute("exp_multiplier",  EXP_MULTIPLIER);
@@ -175,7 +236,20 @@ public class ServerContext {
         PORT                = loadArg.getIntAttribute   ("port",0);
         MULTI_ADDR          = loadArg.getStringAttribute("multicast-addr", null);
         MULTI_PORT          = loadArg.getIntAttribute   ("multicast-port", 0);
+        REACTOR_COUNT       = loadArg.getIntAttribute   ("reactor_count",   REACTOR_COUNT);
+        REACTOR_BALANCE     = loadArg.getStringAttribute("reactor_balance", REACTOR_BALANCE);
         MAX_BATCH_SIZE      = loadArg.getIntAttribute   ("max_batch_size",  MAX_BATCH_SIZE);
+        MAX_PAGE_SIZE       = loadArg.getIntAttribute   ("max_page_size",   MAX_PAGE_SIZE);
+        GLOBAL_TOP_SIZE     = loadArg.getIntAttribute   ("global_top_size", GLOBAL_TOP_SIZE);
+        MAX_REVIEW_BATCH    = loadArg.getIntAttribute   ("max_review_batch", MAX_REVIEW_BATCH);
+        PIPELINE_WINDOW     = loadArg.getIntAttribute   ("pipeline_window", PIPELINE_WINDOW);
+        IDLE_TIMEOUT        = loadArg.getLongAttribute  ("idle_timeout",    IDLE_TIMEOUT);
+        HALF_OPEN_TIMEOUT   = loadArg.getLongAttribute  ("half_open_timeout", HALF_OPEN_TIMEOUT);
+        TIMER_TICK          = loadArg.getLongAttribute  ("timer_tick",      TIMER_TICK);
+        TIMER_SLOTS         = loadArg.getIntAttribute   ("timer_slots",     TIMER_SLOTS);
+        ADMISSION_HIGH      = loadArg.getIntAttribute   ("admission_high",  ADMISSION_HIGH);
+        ADMISSION_LOW       = loadArg.getIntAttribute   ("admission_low",   ADMISSION_LOW);
+        RETRY_AFTER         = loadArg.getLongAttribute  ("retry_after",     RETRY_AFTER);
         Hotelsto            = loadArg.getStringAttribute("hotelsto",        Hotelsfrom);
         Usersto             = loadArg.getStringAttribute("usersto",         Usersfrom);
         Reviewsto           = loadArg.getStringAttribute("reviewsto",       Reviewsfrom);
@@ -184,11 +258,17 @@ public class ServerContext {
         MAX_DUMP            = loadArg.getIntAttribute   ("max_dump",        MAX_DUMP);
         PACKET_LENGTH       = loadArg.getIntAttribute   ("packet_length",   PACKET_LENGTH);
         BUFFER_POOL_SIZE    = loadArg.getIntAttribute   ("buffer_pool_size",BUFFER_POOL_SIZE);
-        ALLOC_TRESHOLD      = loadArg.getIntAttribute   ("alloc_treshold",  ALLOC_TRESHOLD);
+        BUFFER_MIN_SIZE     = loadArg.getIntAttribute   ("buffer_min_size", BUFFER_MIN_SIZE);
+        BUFFER_MAX_SIZE     = loadArg.getIntAttribute   ("buffer_max_size", BUFFER_MAX_SIZE);
+        BUFFER_THREAD_CACHE = loadArg.getIntAttribute   ("buffer_thread_cache", BUFFER_THREAD_CACHE);
+        BUFFER_DIRECT       = loadArg.getBooleanAttribute("buffer_direct",  BUFFER_DIRECT);
         EXP_INF             = loadArg.getIntAttribute   ("add_exp_inf",     EXP_INF);
         EXP_SUP             = loadArg.getIntAttribute   ("add_exp_sup",     EXP_SUP);
         SALT_LENGTH         = loadArg.getIntAttribute   ("salt_length",     SALT_LENGTH);
         USERNAME_REGEX      = loadArg.getStringAttribute("name_regex",      USERNAME_REGEX);
+        RESUME_TTL          = loadArg.getLongAttribute  ("resume_ttl",      RESUME_TTL);
+        RESUME_MAX_TOKENS   = loadArg.getIntAttribute   ("resume_max_tokens", RESUME_MAX_TOKENS);
+        MAX_USER_SESSIONS   = loadArg.getIntAttribute   ("max_user_sessions", MAX_USER_SESSIONS);
 
         //caricamento di EXP che potrebbe essere null
         try{
@@ -218,8 +298,38 @@ public class ServerContext {
         if (MULTI_PORT <= 1024 || MULTI_PORT > 65535) 
             throw new MalformedParametersException("Il parametro 'multicast-port' è mancante o non valido. Seleziona un valore tra [1024, 65535].");
         
+        if(!POOL_MODE.equals("platform") && !POOL_MODE.equals("virtual"))
+            throw new MalformedParametersException("Il parametro 'pool_mode' deve essere 'platform' o 'virtual'");
+
+        if(!REACTOR_BALANCE.equals("round_robin") && !REACTOR_BALANCE.equals("least_loaded"))
+            throw new MalformedParametersException("Il parametro 'reactor_balance' deve essere 'round_robin' o 'least_loaded'");
+
+        if(IDLE_TIMEOUT < 0 || HALF_OPEN_TIMEOUT < 0)
+            throw new MalformedParametersException("I parametri 'idle_timeout' e 'half_open_timeout' non possono essere negativi");
+
+        if(TIMER_TICK <= 0 || TIMER_SLOTS <= 0)
+            throw new MalformedParametersException("I parametri 'timer_tick' e 'timer_slots' devono essere maggiori di 0");
+
+        if(ADMISSION_HIGH > 0 && (ADMISSION_LOW < 0 || ADMISSION_LOW >= ADMISSION_HIGH))
+            throw new MalformedParametersException("Il parametro 'admission_low' deve essere compreso tra 0 e 'admission_high'");
+
+        if(MAX_BATCH_SIZE <= 0 || MAX_PAGE_SIZE < MAX_BATCH_SIZE)
+            throw new MalformedParametersException("Il parametro 'max_batch_size' deve essere maggiore di 0 e non superiore a 'max_page_size'");
+
+        if(GLOBAL_TOP_SIZE <= 0)
+            throw new MalformedParametersException("Il parametro 'global_top_size' deve essere maggiore di 0");
+
+        if(MAX_REVIEW_BATCH <= 0)
+            throw new MalformedParametersException("Il parametro 'max_review_batch' deve essere maggiore di 0");
+
         if(SALT_LENGTH <= 0)
             throw new MalformedParametersException("Il parametro 'salt_length' è minore o uguale a 0");
+
+        if(RESUME_TTL < 0 || RESUME_MAX_TOKENS <= 0)
+            throw new MalformedParametersException("Il parametro 'resume_ttl' non può essere negativo e 'resume_max_tokens' deve essere maggiore di 0");
+
+        if(MAX_USER_SESSIONS <= 0)
+            throw new MalformedParametersException("Il parametro 'max_user_sessions' deve essere maggiore di 0");
         
         // Verifica se MULTI_ADDR è un indirizzo host valido
          
@@ -240,6 +350,11 @@ public class ServerContext {
         waitForTaskCompletion   (   MainPool.submit(new Parser.HotelsLoad(Hotelsfrom, HotelsTable)),
                                     MainPool.submit(new Parser.UsersLoad(Usersfrom, UsersTable))
                                 );
+        Names = new NameIndex(HotelsTable.values());
+        Text  = new TextIndex(HotelsTable.values());
+        Services = new ServiceIndex(HotelsTable.values());
+        Global   = new GlobalRanking(HotelsTable.values(), GLOBAL_TOP_SIZE);
+        Reviews  = new ReviewAccumulator(HotelsTable.values());
     }
 
     
@@ -257,6 +372,9 @@ public class ServerContext {
         ));
         add(RankingPool.scheduleWithFixedDelay(
             RankManager.getInstance(), RANK_INIT, RANK_DELAY, TIME_DELAY
+        ));
+        if(METRICS_DELAY > 0) add(FileHandlerPool.scheduleWithFixedDelay(
+            new Metrics(), METRICS_DELAY, METRICS_DELAY, TIME_DELAY
         ));}};
     }
 
@@ -271,6 +389,7 @@ public class ServerContext {
             waitForTaskCompletion(task);
         }
         shutdownGracefully(POOL_AWAIT, AWAIT_UNIT, MainPool);
+        if(METRICS_DELAY > 0) new Metrics().run();
         // Completa l'elaborazione del ranking e il salvataggio dei dati
         try{
             //schedula e attende il completamento dell'aggioirnamento del ranking
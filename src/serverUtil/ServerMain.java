@@ -4,25 +4,23 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.BindException;
 import java.net.InetSocketAddress;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ServerMain {
-    private     static ConcurrentHashMap<String,Boolean> LoggedTable;
-    protected   static Selector SelectorInstance    = null;
     //contatore condiviso con il ShutdownHook
     private     static AtomicBoolean runningFlag    = new AtomicBoolean(true);
     private     static boolean doNotWait = false;
 
-    public static Selector getSelector(){
-        return SelectorInstance;
-    }
+    /*
+     * Reactor che possiede il ServerSocketChannel e reactor di I/O.
+     * In modalità single-reactor (reactor_count = 0) l'acceptor
+     * gestisce anche l'I/O delle connessioni
+     */
+    private     static Reactor      Acceptor        = null;
+    private     static Reactor[]    Reactors        = null;
+    private     static int          NextReactor     = 0;
 
     public static void run(){
         // Inizializzazione del ServerContext
@@ -34,19 +32,20 @@ public class ServerMain {
         System.out.println("Resources loaded");
         ServerContext.scheduleTasks();
         System.out.println("Tasks scheduled");
-        LoggedTable = ServerContext.LoggedTable;
 
-        try(ServerSocketChannel welcomeSocket = ServerSocketChannel.open(); Selector selector = Selector.open()){
-            System.out.println("Server is running on port " + ServerContext.PORT);
-            //apertura del selector
-            SelectorInstance = selector;
+        try(ServerSocketChannel welcomeSocket = ServerSocketChannel.open()){
+            //apertura dei reactor
+            initReactors();
+            Acceptor.listen(welcomeSocket.bind(new InetSocketAddress(ServerContext.PORT)));
+            System.out.println("Server is running on port " + ServerContext.PORT
+                                + " [reactors: " + Reactors.length + ", balance: " + ServerContext.REACTOR_BALANCE + "]");
 
             Thread t = Thread.currentThread();
 
             //configurazione dell'handler delle interruzioni
             Runtime.getRuntime().addShutdownHook(new Thread(( ) -> {
                 try{System.out.println("Shutdown Hook triggered");
-                    runningFlag.set(false);selector.wakeup();
+                    runningFlag.set(false);Acceptor.wakeup();
                     System.out.println("Waiting for server to close...");
                     if(!doNotWait)
                         t.join();
@@ -56,47 +55,27 @@ public class ServerMain {
                     e.printStackTrace();
                 }
             }));
-            
-            welcomeSocket.bind(new InetSocketAddress(ServerContext.PORT))
-                         .configureBlocking(false)
-                         .register(selector, SelectionKey.OP_ACCEPT);
+
+            //avvia i reactor di I/O
+            Thread[] ReactorThreads = new Thread[Reactors.length];
+            for(int i = 0; i < Reactors.length; i++){
+                if(Reactors[i] == Acceptor) continue;
+                ReactorThreads[i] = new Thread(Reactors[i], "Reactor-" + Reactors[i].getId());
+                ReactorThreads[i].start();
+            }
 
             //inizia il ciclo di ascolto
-            while(runningFlag.get()){   //Settato a false da shutdown hook
-                selector.select();
-                Set<SelectionKey> selectedKeys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
-
-                while(keyIterator.hasNext()){
-                    SelectionKey key = keyIterator.next();
-                    try{
-                        //Richiesta di connessione
-                        if(key.isAcceptable()){
-                            SocketChannel   clientChannel = welcomeSocket.accept();
-                                            clientChannel.configureBlocking(false);
-                                            clientChannel.register(selector, SelectionKey.OP_READ, new Session());
-                        }
-                        //Richiesta di lettura
-                        else if(key.isReadable())   handleRead(key);
-                        
-                        //Richiesta di scrittura
-                        else if(key.isWritable())   handleWrite(key);
-
-                        //Cancella la chiave dalla collezione
-                        keyIterator.remove();
-
-                    } catch(Exception e){
-                        key.cancel();
-                        //Cancella la chiave e disconnette il client
-                        String user = ((Session) key.attachment()).Username;
-                        SocketChannel client = (SocketChannel) key.channel();
-            
-                        //Effettua il logout all'utente
-                        if(user != null) LoggedTable.remove(user);
-                        
-                        client.close();
-
-                    }
+            Acceptor.run();
+            runningFlag.set(false);
+
+            //attende la terminazione dei reactor di I/O
+            for(int i = 0; i < Reactors.length; i++){
+                if(ReactorThreads[i] == null) continue;
+                Reactors[i].wakeup();
+                try{
+                    ReactorThreads[i].join();
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
                 }
             }
         }
@@ -105,29 +84,48 @@ public class ServerMain {
             doNotWait = true;
             System.exit(0);
         }
-         catch(IOException e) { 
+         catch(IOException e) {
             e.printStackTrace();
         }
 
     }
 
-    private static void handleWrite(SelectionKey key) throws Exception{
-        SocketChannel client = (SocketChannel) key.channel();
-        Session session = (Session) key.attachment();
-        if(session.writeTo(client)){
-            System.out.println("Writing Done");
-            //se scrittura finita cambia il set di interesse
-            key.interestOps(SelectionKey.OP_READ);
+    //crea l'acceptor e i reactor di I/O in base alla configurazione
+    private static void initReactors() throws IOException {
+        Acceptor = new Reactor(0, runningFlag);
+        if(ServerContext.REACTOR_COUNT <= 0){
+            Reactors = new Reactor[]{ Acceptor };
+            return;
         }
+        Reactors = new Reactor[ServerContext.REACTOR_COUNT];
+        for(int i = 0; i < Reactors.length; i++)
+            Reactors[i] = new Reactor(i + 1, runningFlag);
     }
 
-    private static void handleRead(SelectionKey key) throws Exception{
-        SocketChannel client = (SocketChannel) key.channel();
-        Session session = (Session) key.attachment();
-            if(session.readFrom(client)){
-                System.out.println("Reading Done");
-                ServerContext.MainPool.submit(new RequestHandler(key));
+    /*
+     * Assegna una connessione accettata a uno dei reactor di I/O.
+     * Invocato solo dal thread dell'acceptor
+     */
+    protected static void dispatch(SocketChannel client){
+        Reactor target;
+        if(ServerContext.REACTOR_BALANCE.equals("least_loaded")){
+            target = Reactors[0];
+            for(Reactor r : Reactors){
+                if(r.getLoad() < target.getLoad()) target = r;
             }
+        } else {
+            //round robin
+            target = Reactors[NextReactor];
+            NextReactor = (NextReactor + 1) % Reactors.length;
+        }
+        target.assign(client);
+    }
+
+    //risveglia tutti i reactor di I/O (es. per riprendere le letture)
+    protected static void wakeupReactors(){
+        Reactor[] reactors = Reactors;
+        if(reactors == null) return;
+        for(Reactor r : reactors) r.wakeup();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,138 @@
+package serverUtil;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Indice dei servizi degli hotel per le ricerche filtrate (SEARCH_FILTER)
+ *
+ * I nomi dei servizi (normalizzati) sono numerati in un unico vocabolario.
+ * Per ogni città si mantengono:
+ *  - per ogni servizio una bitmap sugli hotel (bit Hotel.Local)
+ *  - per ogni hotel un bitset dei suoi servizi (Words long consecutivi)
+ *
+ * Un filtro può fare l'AND delle bitmap e ordinare gli hotel risultanti
+ * per posizione in classifica, oppure scorrere la classifica confrontando
+ * il bitset di ogni hotel con la maschera della query fino ai primi n.
+ * La scelta usa le frequenze dei servizi (supposti indipendenti) per
+ * stimare il costo delle due strade. Gli hotel e i loro servizi non
+ * cambiano: l'indice è immutabile
+ */
+public class ServiceIndex {
+
+    private final HashMap<String, Integer>  Ids;        //servizio normalizzato -> id
+    private final int                       Words;      //long per bitset di un hotel
+    private final HashMap<City, Facets>     Cities;
+
+    private static class Facets {
+        final long[][]  ByService;  //id servizio -> bitmap sugli hotel
+        final int[]     Counts;     //hotel con il servizio
+        final long[]    ByHotel;    //bitset dell'hotel in [Local * Words, (Local + 1) * Words)
+
+        Facets(int services, int words, int hotels) {
+            this.ByService  = new long[services][(hotels + 63) >>> 6];
+            this.Counts     = new int[services];
+            this.ByHotel    = new long[hotels * words];
+        }
+    }
+
+    public ServiceIndex(Collection<City> cities) {
+        this.Ids = new HashMap<>();
+        for(City city : cities)
+            for(Hotel h : city.getSnapshot().Hotels)
+                if(h.getServices() != null)
+                    for(String service : h.getServices())
+                        Ids.putIfAbsent(City.normalize(service), Ids.size());
+
+        this.Words  = Math.max(1, (Ids.size() + 63) >>> 6);
+        this.Cities = new HashMap<>();
+        for(City city : cities){
+            Hotel[] hotels = city.getSnapshot().Hotels;
+            Facets facets = new Facets(Ids.size(), Words, hotels.length);
+            for(Hotel h : hotels){
+                if(h.getServices() == null) continue;
+                for(String service : h.getServices()){
+                    int id = Ids.get(City.normalize(service));
+                    long bit = 1L << id;
+                    int word = h.Local * Words + (id >>> 6);
+                    if((facets.ByHotel[word] & bit) != 0) continue;     //servizio ripetuto
+                    facets.ByHotel[word]                        |= bit;
+                    facets.ByService[id][h.Local >>> 6]         |= 1L << h.Local;
+                    facets.Counts[id]++;
+                }
+            }
+            Cities.put(city, facets);
+        }
+    }
+
+    /*
+     * Restituisce al più n hotel della città che offrono tutti i servizi
+     * indicati, in ordine di classifica. Un servizio sconosciuto non è
+     * offerto da nessun hotel
+     */
+    public HotelDTO[] filter(City city, String[] services, int n) {
+        RankSnapshot snapshot = city.getSnapshot();
+        Facets facets = Cities.get(city);
+        if(facets == null || n <= 0) return new HotelDTO[0];
+
+        long[] mask     = new long[Words];
+        int[] ids       = new int[services.length];
+        int size        = snapshot.size();
+        double density  = 1;
+        for(int i = 0; i < services.length; i++){
+            Integer id = Ids.get(City.normalize(services[i]));
+            if(id == null || facets.Counts[id] == 0) return new HotelDTO[0];
+            ids[i] = id;
+            mask[id >>> 6] |= 1L << id;
+            density *= (double) facets.Counts[id] / size;
+        }
+        if(ids.length == 0) return snapshot.range(0, n);
+
+        //hotel visitati dalla scansione contro parole lette e posizioni ordinate dall'AND
+        double visited  = Math.min(size, n / density);
+        double matches  = size * density;
+        double merge    = ids.length * ((size + 63) >>> 6) + matches * (1 + Math.log(1 + matches) / Math.log(2));
+        return merge < visited ?
+                    intersect(snapshot, facets, ids, n) :
+                    scan(snapshot, facets, mask, n);
+    }
+
+    //AND delle bitmap e ordinamento per posizione in classifica
+    private HotelDTO[] intersect(RankSnapshot snapshot, Facets facets, int[] ids, int n) {
+        long[] result = facets.ByService[ids[0]].clone();
+        int count = 0;
+        for(int w = 0; w < result.length; w++){
+            for(int i = 1; i < ids.length; i++) result[w] &= facets.ByService[ids[i]][w];
+            count += Long.bitCount(result[w]);
+        }
+
+        int[] positions = new int[count];
+        int size = 0;
+        for(int w = 0; w < result.length; w++){
+            for(long word = result[w]; word != 0; word &= word - 1)
+                positions[size++] = snapshot.indexOf((w << 6) + Long.numberOfTrailingZeros(word));
+        }
+        Arrays.sort(positions);
+
+        HotelDTO[] hotels = new HotelDTO[Math.min(n, count)];
+        for(int i = 0; i < hotels.length; i++) hotels[i] = snapshot.Entries[positions[i]];
+        return hotels;
+    }
+
+    //scansione della classifica con il bitset di ogni hotel
+    private HotelDTO[] scan(RankSnapshot snapshot, Facets facets, long[] mask, int n) {
+        HotelDTO[] hotels = new HotelDTO[n];
+        int count = 0;
+        for(int i = 0; i < snapshot.Hotels.length && count < n; i++){
+            int base = snapshot.Hotels[i].Local * Words;
+            boolean match = true;
+            for(int w = 0; w < Words && match; w++)
+                match = (facets.ByHotel[base + w] & mask[w]) == mask[w];
+            if(match) hotels[count++] = snapshot.Entries[i];
+        }
+        return count == n ? hotels : Arrays.copyOf(hotels, count);
+    }
+}
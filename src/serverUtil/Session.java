@@ -1,76 +1,165 @@
 package serverUtil;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import lib.share.codec.BinaryCodec;
 import lib.share.packet.Request.Method;
 
 /*
  * Memorizza lo stato della connessione con un client
- * 
- * Mantiene un buffer per letture/scritture per la gestione
- * di operazioni non bloccanti
+ *
+ * Mantiene i buffer per letture/scritture per la gestione
+ * di operazioni non bloccanti.
+ *
+ * Le richieste possono essere inviate in pipeline: ogni lettura
+ * estrae i pacchetti completi presenti nel buffer di input e li accoda,
+ * fino a pipeline_window richieste in volo. Le richieste vengono eseguite in ordine da un solo
+ * RequestHandler alla volta, quindi anche le risposte sono in ordine.
  */
 public class Session {
     /*
-     * Inizializza un buffer pool per il caching dei buffer
+     * Buffer pool condiviso da tutte le sessioni (thread-safe).
+     * I buffer vengono restituiti al pool appena la richiesta è stata
+     * deserializzata o la risposta è stata scritta
      */
-    private static final BufferPool pool;       
+    private static final BufferPool pool;
     private static final int        MAX_SIZE;   //dimensione massima del pacchetto
+    private static final int        WINDOW;     //richieste in volo per connessione
 
     //blocco static per i campi statici
     static{
-        pool = new BufferPool(ServerContext.ALLOC_TRESHOLD, ServerContext.BUFFER_POOL_SIZE);
+        pool = new BufferPool(  ServerContext.BUFFER_MIN_SIZE,
+                                ServerContext.BUFFER_MAX_SIZE,
+                                ServerContext.BUFFER_POOL_SIZE,
+                                ServerContext.BUFFER_THREAD_CACHE,
+                                ServerContext.BUFFER_DIRECT);
         MAX_SIZE = ServerContext.PACKET_LENGTH;
+        WINDOW   = Math.max(ServerContext.PIPELINE_WINDOW, 1);
     }
 
-    private     ByteBuffer  Buffer;
-    private     ByteBuffer  SizeBuffer;
-    protected   String      Message;
-    protected   String      Username;
+    //numero massimo di buffer per ogni scrittura gather
+    private static final int MAX_GATHER = 16;
+
+    /*
+     * Buffer di input: appartiene al reactor e contiene, tra una lettura e
+     * l'altra, i pacchetti non ancora estratti per finestra piena e al più
+     * un pacchetto incompleto. Se vuoto torna al pool
+     */
+    private     ByteBuffer  InBuffer;
+    //corpi delle richieste ricevute e non ancora eseguite [lock su se stessa]
+    private final ArrayDeque<ByteBuffer> Requests;
+    /*
+     * Pacchetti di risposta (header incluso) in attesa di essere scritti.
+     * La coda fa anche da lock per le scritture, che possono essere
+     * eseguite sia dal worker (fast path) sia dal reactor (OP_WRITE)
+     */
+    private final ArrayDeque<ByteBuffer> OutQueue;
+    private final ByteBuffer[]  Gather;
+    private     boolean     WriteArmed;     //OP_WRITE registrato [protetto da OutQueue]
+    private final AtomicBoolean Busy;       //RequestHandler in esecuzione
+    private final AtomicBoolean ReadPaused; //OP_READ rimosso per finestra piena
+    //richieste accodate o con risposta non ancora scritta
+    private final AtomicInteger InFlight;
+    //utente autenticato, scritto solo dal SessionRegistry
+    protected volatile String Username;
+    //token di RESUME emesso alla sessione [protetto dal lock di ResumeTokens]
+    protected   String      ResumeToken;
     protected   Object      Data;
     protected   Method      LastMethod;
-    private     boolean     PendingBufferInit;
-    private     boolean     PendingMessageCollection;
+    protected   Reactor     Owner;      //reactor che gestisce la connessione
+    protected   SelectionKey Key;       //chiave registrata sul selettore di Owner
+    //comandi per il reactor non ancora applicati (Reactor.CMD_*)
+    private final AtomicInteger PendingCommands;
+    protected volatile boolean Closed;  //settato dal reactor alla chiusura
+    /*
+     * Codifica della connessione, stabilita dal primo pacchetto.
+     * Usati solo dal RequestHandler attivo (o dal reactor quando rifiuta)
+     */
+    protected   boolean     Binary;
+    private     boolean     Negotiated;
+
+    // Stato per i timeout [usato solo dal thread di Owner]
+    protected   long        LastRead;       //ultima lettura con dati (ms)
+    protected   long        LastWrite;      //ultima scrittura del reactor (ms)
+    protected   Session     TimerPrev;      //nodi della TimerWheel
+    protected   Session     TimerNext;
+    protected   long        TimerDeadline;
+    protected   int         TimerSlot;      //-1 se non schedulata
 
     public Session() {
         this.Username                   = null;
         this.Data                       = null;
         this.LastMethod                 = null;
-        this.Message                    = null;
-        this.Buffer                     = null;
-        //flag di sicurezza che evitano la sovrascrittura del buffer
-        this.PendingBufferInit          = false;
-        this.PendingMessageCollection   = false;
-        //buffer per la dimensione del pacchetto
-        this.SizeBuffer     = ByteBuffer.allocate(Integer.BYTES);
+        this.InBuffer                   = null;
+        this.Requests                   = new ArrayDeque<>();
+        this.OutQueue                   = new ArrayDeque<>();
+        this.Gather                     = new ByteBuffer[MAX_GATHER];
+        this.WriteArmed                 = false;
+        this.Busy                       = new AtomicBoolean(false);
+        this.ReadPaused                 = new AtomicBoolean(false);
+        this.InFlight                   = new AtomicInteger(0);
+        this.Owner                      = null;
+        this.Key                        = null;
+        this.PendingCommands            = new AtomicInteger(0);
+        this.Closed                     = false;
+        this.TimerSlot                  = -1;
+        this.Binary                     = false;
+        this.Negotiated                 = false;
     }
     /*
      * Getters | Setters
      */
-    public String getMessage() {
-        PendingMessageCollection = false;
-        return Message;
+
+    //restituisce un Reader sul corpo di una richiesta ricevuta
+    public Reader getMessageReader(ByteBuffer request) {
+        return new FrameReader(request);
+    }
+
+    /*
+     * Al primo pacchetto stabilisce la codifica della connessione:
+     * se inizia con BinaryCodec.MAGIC il byte viene consumato e
+     * tutte le richieste e risposte successive sono binarie
+     */
+    public void negotiate(ByteBuffer request) {
+        if(Negotiated) return;
+        Negotiated = true;
+        if(request.hasRemaining() && request.get(request.position()) == BinaryCodec.MAGIC){
+            request.get();
+            Binary = true;
+        }
+    }
+
+    //restituisce al pool il buffer di una richiesta
+    public void releaseMessage(ByteBuffer request) {
+        pool.release(request);
     }
 
-    public void setMessage(String message) {
-        this.Message = message;
+    /*
+     * Restituisce un FrameWriter su un buffer del pool in cui
+     * serializzare la risposta
+     */
+    public FrameWriter newFrame(int sizeHint) {
+        return new FrameWriter(pool, sizeHint);
     }
 
     public Object getData() {
         return Data;
-    }  
+    }
 
     public boolean isLogged(){
         return Username != null;
     }
 
-    public void setLogin(String Username){
-        this.Username = Username;
-    }
-
     public void setMethod(Method method){
         this.LastMethod = method;
     }
@@ -92,107 +181,250 @@ public class Session {
         this.Data = null;
     }
 
+    //azzera lo stato dei metodi a due passaggi (l'utente resta autenticato)
     public void flush(){
-        this.Username = null;
         this.Data = null;
         this.LastMethod = null;
     }
 
     /*
-     * Legge da un socket channel assumendo che venga inviato come primo
-     * elemento la dimensione del pacchetto restituendo true se la lettura 
-     * è completata
+     * Legge dal canale tutti i dati disponibili e accoda ogni pacchetto
+     * completo (preceduto dalla sua dimensione). Restituisce true se il
+     * chiamante deve avviare un RequestHandler per la sessione.
+     *
+     * Se la finestra delle richieste in volo è piena smette di estrarre
+     * pacchetti e di leggere finché le risposte non vengono scritte: i
+     * pacchetti rimasti nel buffer vengono estratti prima della lettura
+     * successiva (il reactor li chiede con hasBufferedRequest)
      */
-    public boolean readFrom(SocketChannel client) throws Exception{
-        /*
-         * Non permette nuove letture sullo stesso buffer
-         * finche il messaggio non viene estratto almeno 
-         * una volta
-         */
-        if(PendingMessageCollection){
-            return true;
-        }
-        
-        //legge la dimensione del pacchetto
-        if(SizeBuffer.hasRemaining()){
-            if(client.read(SizeBuffer) == -1)
+    public boolean readFrom(SelectionKey key) throws Exception{
+        if(InFlight.get() >= WINDOW && pauseRead(key))
+            return false;
+        if(!hasBufferedRequest()){
+            SocketChannel client = (SocketChannel) key.channel();
+            if(InBuffer == null)
+                InBuffer = pool.get(MAX_SIZE + Integer.BYTES);
+            if(client.read(InBuffer) == -1)
                 throw new ClosedChannelException();
-            else if(SizeBuffer.hasRemaining())
-                return false;
-            SizeBuffer.flip();
-            int length = SizeBuffer.getInt();
-            if(length > MAX_SIZE)
-                throw new Exception("Packet too big");
-            //riceve un uffer e setta il limit alla lunghezza del pacchetto
-            Buffer = pool.get(length);
-            Buffer.clear();
-            Buffer.limit(length);
         }
 
-        //analogo a sopra
-        if(Buffer.hasRemaining()){
-            if(client.read(Buffer) == -1)
-            throw new ClosedChannelException();
-
-            else if(!Buffer.hasRemaining()){
-                SizeBuffer.clear();
-                getMessageFromBuffer();
+        InBuffer.flip();
+        int received = 0;
+        while(InBuffer.remaining() >= Integer.BYTES){
+            if(InFlight.get() >= WINDOW && pauseRead(key))
+                break;
+            int length = InBuffer.getInt(InBuffer.position());
+            if(length > MAX_SIZE || length < 0)
+                throw new Exception("Packet too big");
+            //pacchetto incompleto: si attende la prossima lettura
+            if(InBuffer.remaining() < Integer.BYTES + length)
+                break;
+            InBuffer.position(InBuffer.position() + Integer.BYTES);
+            //copia il corpo in un buffer proprio della richiesta
+            int limit = InBuffer.limit();
+            InBuffer.limit(InBuffer.position() + length);
+            ByteBuffer request = pool.get(length);
+            request.put(InBuffer).flip();
+            InBuffer.limit(limit);
+            synchronized(Requests){
+                Requests.addLast(request);
             }
-            else return false;
+            InFlight.incrementAndGet();
+            Admission.enter();
+            received++;
         }
-        return true;
+        if(InBuffer.hasRemaining()){
+            InBuffer.compact();
+        } else {
+            pool.release(InBuffer);
+            InBuffer = null;
+        }
+        //un solo RequestHandler per sessione: garantisce l'ordine delle risposte
+        return received > 0 && Busy.compareAndSet(false, true);
+    }
 
+    /*
+     * Invocato dal worker: restituisce la prossima richiesta da eseguire
+     * o null se la coda è vuota
+     */
+    public ByteBuffer nextRequest(){
+        if(Closed) return null;
+        synchronized(Requests){
+            return Requests.pollFirst();
+        }
     }
 
-    //analoga a ReadFrom
-    public boolean writeTo(SocketChannel client) throws Exception {
-        if(!PendingBufferInit){
-            setBufferFromMessage();
-            PendingBufferInit = true;
+    /*
+     * Invocato dal worker quando la coda è vuota. Restituisce true se
+     * nel frattempo sono arrivate altre richieste e il worker deve
+     * continuare a eseguirle
+     */
+    public boolean endRequests(){
+        Busy.set(false);
+        synchronized(Requests){
+            if(Requests.isEmpty()) return false;
         }
-        
-        if(SizeBuffer.hasRemaining()){
-            if(client.write(SizeBuffer) == -1)
-                throw new ClosedChannelException();
-    
-            else if(SizeBuffer.hasRemaining())
-                return false;
-            SizeBuffer.clear();
+        return !Closed && Busy.compareAndSet(false, true);
+    }
+
+    /*
+     * Accoda un pacchetto (prodotto da FrameWriter.finish) e prova a
+     * scriverlo subito dal thread chiamante con una scrittura gather.
+     * Solo se la scrittura è parziale chiede al reactor di registrare OP_WRITE.
+     * Se la connessione è già stata chiusa il pacchetto torna al pool
+     */
+    public void send(ByteBuffer frame) throws IOException {
+        synchronized(OutQueue){
+            //Reactor.close setta Closed prima di svuotare la coda in release
+            if(Closed){
+                pool.release(frame);
+                return;
+            }
+            OutQueue.addLast(frame);
+            //il reactor sta già attendendo OP_WRITE: scriverà lui
+            if(WriteArmed) return;
+            if(!flush((SocketChannel) Key.channel())){
+                WriteArmed = true;
+                Owner.submit(this, Reactor.CMD_WRITE);
+                return;
+            }
         }
+        //finestra liberata: le letture riprendono dal reactor
+        if(InFlight.get() < WINDOW && ReadPaused.compareAndSet(true, false))
+            Owner.submit(this, Reactor.CMD_READ);
+    }
 
-        if(Buffer.hasRemaining()) {
-            if(client.write(Buffer) == -1)
-                throw new ClosedChannelException();
+    /*
+     * Invocato dal reactor quando il canale è scrivibile.
+     * Se la coda viene svuotata rimuove OP_WRITE dal set di interesse
+     */
+    public void writeTo(SelectionKey key) throws IOException {
+        synchronized(OutQueue){
+            if(flush((SocketChannel) key.channel())){
+                WriteArmed = false;
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            }
+        }
+        resumeRead(key);
+    }
 
-            else if(Buffer.hasRemaining())
-                return false;
+    /*
+     * Scrive i pacchetti in coda con scritture gather, restituendo i
+     * buffer completati al pool. Restituisce true se la coda è vuota
+     */
+    private boolean flush(SocketChannel client) throws IOException {
+        while(!OutQueue.isEmpty()){
+            int n = 0;
+            for(ByteBuffer b : OutQueue){
+                Gather[n++] = b;
+                if(n == MAX_GATHER) break;
+            }
+            client.write(Gather, 0, n);
+            Arrays.fill(Gather, 0, n, null);
+            int completed = 0;
+            while(completed < n && !OutQueue.peekFirst().hasRemaining()){
+                pool.release(OutQueue.pollFirst());
+                completed++;
+            }
+            //ogni risposta scritta libera un posto nella finestra
+            InFlight.addAndGet(-completed);
+            //buffer di invio del socket pieno
+            if(completed < n) return false;
         }
+        return true;
+    }
 
+    /*
+     * Invocato dal reactor quando la finestra delle richieste è piena.
+     * Restituisce false se nel frattempo la finestra si è liberata e le
+     * letture non sono sospese
+     */
+    private boolean pauseRead(SelectionKey key){
+        key.interestOpsAnd(~SelectionKey.OP_READ);
+        ReadPaused.set(true);
+        //le risposte potrebbero essere state scritte nel frattempo
+        if(InFlight.get() < WINDOW && ReadPaused.compareAndSet(true, false)){
+            key.interestOpsOr(SelectionKey.OP_READ);
+            return false;
+        }
         return true;
+    }
+
+    //invocato dal reactor: riprende le letture se la finestra si è liberata
+    private void resumeRead(SelectionKey key){
+        if(InFlight.get() < WINDOW && ReadPaused.compareAndSet(true, false)){
+            try{
+                key.interestOpsOr(SelectionKey.OP_READ);
+            } catch(CancelledKeyException e){
+                //connessione già chiusa
+            }
+        }
+    }
+
+    //richieste accodate, in esecuzione o con risposta non ancora scritta
+    protected int getInFlight(){
+        return InFlight.get();
+    }
 
+    /*
+     * true se il buffer di input contiene un pacchetto completo non ancora
+     * estratto. Il client potrebbe non inviare altro, quindi quando le
+     * letture riprendono il reactor estrae questi pacchetti senza attendere OP_READ
+     */
+    protected boolean hasBufferedRequest(){
+        return InBuffer != null && InBuffer.position() >= Integer.BYTES
+                && InBuffer.position() - Integer.BYTES >= InBuffer.getInt(0);
     }
-    //Setta il campo Message a partire dal buffer
-    private void getMessageFromBuffer() {
-        // resetta la flag di sicurezza
-        PendingBufferInit = false;
-        Buffer.flip();
-        Message = StandardCharsets.UTF_8.decode(Buffer).toString();
+
+    //true se un pacchetto è stato ricevuto solo in parte
+    protected boolean hasPartialRequest(){
+        return InBuffer != null && InBuffer.position() > 0;
     }
 
+    //true se ci sono risposte in attesa che il client legga
+    protected boolean isWritePending(){
+        synchronized(OutQueue){
+            return WriteArmed;
+        }
+    }
 
     /*
-     * Richiede un nuovo buffer al BufferPool e ci scrive dentro il 
-     * messaggio. Setta SizeBuffer alla dimensione del messaggio.
-     * Il buffer viene poi preparato per la scrittura
+     * Aggiunge comandi per il reactor. Restituisce true se la sessione
+     * non aveva comandi pendenti e va quindi accodata al reactor
      */
-    private void setBufferFromMessage(){
-        byte[] MessageBytes = Message.getBytes(StandardCharsets.UTF_8);
-        SizeBuffer.putInt(MessageBytes.length);
-        SizeBuffer.flip();
-        Buffer = pool.get(MessageBytes.length);
-        Buffer.put(MessageBytes);
-        Buffer.limit(MessageBytes.length);
-        Buffer.flip();
+    protected boolean addCommands(int commands){
+        int current;
+        do{
+            current = PendingCommands.get();
+            if((current | commands) == current) return false;
+        } while(!PendingCommands.compareAndSet(current, current | commands));
+        return current == 0;
+    }
+
+    //invocato dal reactor: preleva e azzera i comandi pendenti
+    protected int takeCommands(){
+        return PendingCommands.getAndSet(0);
+    }
+
+    /*
+     * Restituisce al pool i buffer ancora in uso.
+     * Invocato dal reactor alla chiusura della connessione: la richiesta
+     * eventualmente in esecuzione viene rilasciata dal worker e la sua
+     * risposta da send
+     */
+    protected void release(){
+        pool.release(InBuffer);
+        InBuffer = null;
+        synchronized(Requests){
+            while(!Requests.isEmpty()){
+                pool.release(Requests.pollFirst());
+                Admission.exit();
+            }
+        }
+        synchronized(OutQueue){
+            while(!OutQueue.isEmpty())
+                pool.release(OutQueue.pollFirst());
+        }
     }
 
 }
@@ -0,0 +1,136 @@
+package serverUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Registro delle sessioni autenticate: utente -> connessioni attive
+ *
+ * Gli utenti sono distribuiti su Stripes tabelle, ognuna con il proprio
+ * lock, in numero proporzionale ai core: login e disconnessioni di utenti
+ * diversi non si contendono lo stesso lock.
+ *
+ * Il registro è l'unico a scrivere Session.Username: una sessione è
+ * autenticata se e solo se è registrata, quindi il controllo a ogni
+ * richiesta è la lettura di Session.isLogged(). Quando un utente viene
+ * disconnesso da un'altra connessione (EXT_LOGOUT) le sue sessioni
+ * perdono subito l'utente e vengono chiuse dai rispettivi reactor.
+ *
+ * Aggiunta e chiusura possono avvenire in contemporanea (worker e reactor):
+ * add scrive Username e poi legge Closed, Reactor.close scrive Closed e
+ * poi legge Username (entrambi volatile), quindi almeno uno dei due
+ * rimuove la sessione
+ */
+public class SessionRegistry {
+
+    private final Stripe[]  Stripes;
+    private final int       Mask;
+    private final int       MaxPerUser;     //connessioni autenticate per utente
+
+    private static class Stripe {
+        final HashMap<String, ArrayList<Session>> Users = new HashMap<>();
+    }
+
+    public SessionRegistry(int maxPerUser) {
+        int stripes = Integer.highestOneBit(Math.max(1, 4 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.Stripes    = new Stripe[stripes];
+        this.Mask       = stripes - 1;
+        this.MaxPerUser = maxPerUser;
+        for(int i = 0; i < stripes; i++) Stripes[i] = new Stripe();
+    }
+
+    /*
+     * Autentica la sessione come username. Restituisce false se la sessione
+     * è già autenticata, se l'utente ha già MaxPerUser connessioni o se la
+     * connessione è stata chiusa nel frattempo
+     */
+    public boolean add(Session session, String username) {
+        return replace(null, session, username);
+    }
+
+    /*
+     * Come add, ma se old è una sessione registrata dello stesso utente
+     * (es. la connessione che ha ricevuto il token di RESUME) viene
+     * sostituita e chiusa
+     */
+    public boolean replace(Session old, Session session, String username) {
+        if(session.Username != null) return false;
+        Stripe stripe = stripe(username);
+        boolean evicted = false;
+        synchronized(stripe){
+            ArrayList<Session> sessions = stripe.Users.get(username);
+            if(sessions == null){
+                sessions = new ArrayList<>(MaxPerUser);
+                stripe.Users.put(username, sessions);
+            }
+            if(old != null && old != session && sessions.remove(old)){
+                old.Username = null;
+                evicted = true;
+            }
+            if(sessions.size() >= MaxPerUser) return false;
+            sessions.add(session);
+            session.Username = username;
+        }
+        if(evicted) old.Owner.submit(old, Reactor.CMD_CLOSE);
+        //la connessione è stata chiusa senza vedere l'utente
+        if(session.Closed){
+            remove(session);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Rimuove la sessione dal registro (logout o chiusura della connessione).
+     * Restituisce false se la sessione non era autenticata
+     */
+    public boolean remove(Session session) {
+        String username = session.Username;
+        if(username == null) return false;
+        Stripe stripe = stripe(username);
+        synchronized(stripe){
+            ArrayList<Session> sessions = stripe.Users.get(username);
+            if(sessions == null || !sessions.remove(session)) return false;
+            if(sessions.isEmpty()) stripe.Users.remove(username);
+            session.Username = null;
+        }
+        return true;
+    }
+
+    /*
+     * Disconnette tutte le sessioni dell'utente (EXT_LOGOUT). Le connessioni
+     * diverse da current vengono chiuse dai reactor che le gestiscono.
+     * Restituisce il numero di sessioni disconnesse
+     */
+    public int removeAll(String username, Session current) {
+        Stripe stripe = stripe(username);
+        ArrayList<Session> sessions;
+        synchronized(stripe){
+            sessions = stripe.Users.remove(username);
+            if(sessions == null) return 0;
+            for(Session s : sessions) s.Username = null;
+        }
+        for(Session s : sessions)
+            if(s != current) s.Owner.submit(s, Reactor.CMD_CLOSE);
+        return sessions.size();
+    }
+
+    //connessioni autenticate dell'utente
+    public int count(String username) {
+        Stripe stripe = stripe(username);
+        synchronized(stripe){
+            ArrayList<Session> sessions = stripe.Users.get(username);
+            return sessions == null ? 0 : sessions.size();
+        }
+    }
+
+    //true se l'utente non può aprire altre sessioni
+    public boolean isFull(String username) {
+        return count(username) >= MaxPerUser;
+    }
+
+    private Stripe stripe(String username) {
+        int h = username.hashCode();
+        return Stripes[(h ^ (h >>> 16)) & Mask];
+    }
+}
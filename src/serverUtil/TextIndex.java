@@ -0,0 +1,291 @@
+package serverUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+
+import lib.share.struct.HotelDTO;
+
+/*
+ * Indice invertito sulle descrizioni e sui servizi degli hotel (SEARCH_TEXT)
+ *
+ * Ogni hotel è un documento; i documenti sono numerati città per città,
+ * quindi gli hotel di una città formano un intervallo contiguo.
+ * Per ogni termine la lista dei documenti (ordinata) è memorizzata in un
+ * unico byte[] come differenze codificate varint. Ogni SKIP posting il
+ * documento è scritto per intero e registrato in una tabella di salto,
+ * così la ricerca in una sola città non decodifica le liste dall'inizio.
+ *
+ * Il punteggio di un hotel è la somma degli idf dei termini della query
+ * che contiene, moltiplicata per (1 + rank) della classifica pubblicata.
+ * Il rank è letto solo se la somma, moltiplicata per (1 + rank massimo
+ * delle città cercate), può superare l'ultimo dei migliori n.
+ * Descrizioni e servizi non cambiano durante l'esecuzione: l'indice è
+ * immutabile e non richiede lock
+ */
+public class TextIndex {
+
+    private static final int SKIP       = 64;   //posting per blocco
+    private static final int MIN_TOKEN  = 2;    //token più corti ignorati
+    private static final int MAX_TERMS  = 16;   //termini considerati per query
+
+    private final HashMap<String, Integer>  Terms;      //termine -> id
+    private final byte[]    Postings;                   //liste di tutti i termini
+    private final int[]     Offset;                     //inizio della lista del termine in Postings
+    private final int[]     Count;                      //documenti che contengono il termine
+    private final int[]     SkipStart;                  //primo blocco del termine in SkipDoc/SkipPos
+    private final int[]     SkipDoc;                    //primo documento di ogni blocco
+    private final int[]     SkipPos;                    //offset in Postings di ogni blocco
+    private final float[]   Idf;
+
+    private final Hotel[]   Docs;
+    private final City[]    Owners;                     //città di ogni documento
+    private final City[]    Cities;
+    private final HashMap<City, int[]> Ranges;          //città -> [primo, ultimo + 1]
+
+    public TextIndex(Collection<City> cities) {
+        ArrayList<Hotel> docs   = new ArrayList<>();
+        ArrayList<City> owners  = new ArrayList<>();
+        this.Ranges = new HashMap<>();
+        for(City city : cities){
+            int from = docs.size();
+            for(Hotel h : city.getSnapshot().Hotels){
+                docs.add(h);
+                owners.add(city);
+            }
+            Ranges.put(city, new int[]{from, docs.size()});
+        }
+        this.Docs   = docs.toArray(new Hotel[0]);
+        this.Owners = owners.toArray(new City[0]);
+        this.Cities = Ranges.keySet().toArray(new City[0]);
+
+        //liste non compresse, costruite in ordine di documento
+        this.Terms = new HashMap<>();
+        ArrayList<int[]> lists = new ArrayList<>();
+        int[] sizes = new int[16];
+        for(int doc = 0; doc < Docs.length; doc++){
+            for(String token : tokens(text(Docs[doc]))){
+                Integer term = Terms.get(token);
+                if(term == null){
+                    term = lists.size();
+                    Terms.put(token, term);
+                    lists.add(new int[4]);
+                    if(term == sizes.length) sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+                }
+                int[] list = lists.get(term);
+                int size = sizes[term];
+                if(size > 0 && list[size - 1] == doc) continue;    //già presente nel documento
+                if(size == list.length) lists.set(term, list = Arrays.copyOf(list, 2 * size));
+                list[size] = doc;
+                sizes[term] = size + 1;
+            }
+        }
+
+        int terms       = lists.size();
+        this.Offset     = new int[terms];
+        this.Count      = new int[terms];
+        this.SkipStart  = new int[terms + 1];
+        this.Idf        = new float[terms];
+        for(int t = 0; t < terms; t++)
+            SkipStart[t + 1] = SkipStart[t] + (sizes[t] + SKIP - 1) / SKIP;
+        this.SkipDoc    = new int[SkipStart[terms]];
+        this.SkipPos    = new int[SkipStart[terms]];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(int t = 0; t < terms; t++){
+            int[] list  = lists.get(t);
+            Offset[t]   = out.size();
+            Count[t]    = sizes[t];
+            Idf[t]      = (float) Math.log(1.0 + (double) Docs.length / sizes[t]);
+            for(int i = 0; i < sizes[t]; i++){
+                if(i % SKIP == 0){
+                    SkipDoc[SkipStart[t] + i / SKIP] = list[i];
+                    SkipPos[SkipStart[t] + i / SKIP] = out.size();
+                    writeVarint(out, list[i]);
+                } else writeVarint(out, list[i] - list[i - 1]);
+            }
+        }
+        this.Postings = out.toByteArray();
+    }
+
+    /*
+     * Restituisce al più n hotel che contengono almeno un termine della
+     * query, in ordine di punteggio decrescente. Se city non è null la
+     * ricerca è limitata agli hotel di quella città
+     */
+    public HotelDTO[] search(String query, City city, int n) {
+        int from = 0, to = Docs.length;
+        double maxRank = 0;
+        if(city != null){
+            int[] range = Ranges.get(city);
+            if(range == null) return new HotelDTO[0];
+            from    = range[0];
+            to      = range[1];
+            maxRank = city.getSnapshot().MaxRank;
+        } else {
+            for(City c : Cities) maxRank = Math.max(maxRank, c.getSnapshot().MaxRank);
+        }
+        float bound = (float) (1.0 + maxRank);
+
+        ArrayList<Cursor> cursors = new ArrayList<>();
+        for(String token : tokens(query)){
+            Integer term = Terms.get(token);
+            if(term == null) continue;
+            Cursor cursor = new Cursor(term);
+            if(cursor.seek(from) < to) cursors.add(cursor);
+            if(cursors.size() == MAX_TERMS) break;
+        }
+        if(cursors.isEmpty() || n <= 0) return new HotelDTO[0];
+
+        //visita delle liste in ordine di documento, mantenendo i migliori n
+        PriorityQueue<Hit> best = new PriorityQueue<>(n);
+        while(true){
+            int doc = Integer.MAX_VALUE;
+            for(Cursor c : cursors) doc = Math.min(doc, c.Doc);
+            if(doc >= to) break;
+
+            float score = 0;
+            for(Cursor c : cursors){
+                if(c.Doc == doc){
+                    score += Idf[c.Term];
+                    c.next();
+                }
+            }
+            //i documenti sono visitati in ordine: a parità di punteggio resta il precedente
+            boolean full = best.size() == n;
+            if(full && score * bound <= best.peek().Score) continue;
+
+            RankedHotel entry = Owners[doc].getSnapshot().get(Docs[doc]);
+            score *= (float) (1.0 + entry.rank);
+            if(!full) best.add(new Hit(score, doc, entry));
+            else if(score > best.peek().Score){
+                best.poll();
+                best.add(new Hit(score, doc, entry));
+            }
+        }
+
+        HotelDTO[] result = new HotelDTO[best.size()];
+        for(int i = result.length - 1; i >= 0; i--) result[i] = best.poll().Entry;
+        return result;
+    }
+
+    public int size() {
+        return Docs.length;
+    }
+
+    //byte occupati dalle liste compresse
+    public int postingsSize() {
+        return Postings.length;
+    }
+
+    private static String text(Hotel h) {
+        StringBuilder text = new StringBuilder();
+        if(h.getDescription() != null) text.append(h.getDescription());
+        if(h.getServices() != null)
+            for(String service : h.getServices()) text.append(' ').append(service);
+        return text.toString();
+    }
+
+    //termini distinti del testo: sequenze di lettere e cifre, normalizzate
+    private static LinkedHashSet<String> tokens(String text) {
+        LinkedHashSet<String> tokens = new LinkedHashSet<>();
+        String normalized = City.normalize(text);
+        int start = -1;
+        for(int i = 0; i <= normalized.length(); i++){
+            boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if(word && start < 0) start = i;
+            else if(!word && start >= 0){
+                if(i - start >= MIN_TOKEN) tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static class Hit implements Comparable<Hit> {
+        final float         Score;
+        final int           Doc;
+        final RankedHotel   Entry;
+
+        Hit(float score, int doc, RankedHotel entry) {
+            this.Score  = score;
+            this.Doc    = doc;
+            this.Entry  = entry;
+        }
+
+        //a parità di punteggio è migliore il documento precedente
+        @Override
+        public int compareTo(Hit other) {
+            int cmp = Float.compare(Score, other.Score);
+            return cmp != 0 ? cmp : Integer.compare(other.Doc, Doc);
+        }
+    }
+
+    /*
+     * Posizione corrente in una lista di posting.
+     * Doc vale Integer.MAX_VALUE a lista terminata
+     */
+    private class Cursor {
+        final int   Term;
+        int         Index;  //posting corrente
+        int         Pos;    //offset del posting successivo in Postings
+        int         Doc;
+
+        Cursor(int term) {
+            this.Term   = term;
+            this.Index  = 0;
+            this.Pos    = Offset[term];
+            this.Doc    = readVarint();
+        }
+
+        void next() {
+            if(++Index == Count[Term]){
+                Doc = Integer.MAX_VALUE;
+                return;
+            }
+            int value = readVarint();
+            Doc = Index % SKIP == 0 ? value : Doc + value;
+        }
+
+        //avanza al primo documento >= target usando la tabella di salto
+        int seek(int target) {
+            if(Doc >= target) return Doc;
+            int lo = SkipStart[Term] + Index / SKIP + 1, hi = SkipStart[Term + 1] - 1, block = -1;
+            while(lo <= hi){
+                int mid = (lo + hi) >>> 1;
+                if(SkipDoc[mid] <= target){
+                    block = mid;
+                    lo = mid + 1;
+                } else hi = mid - 1;
+            }
+            if(block >= 0){
+                Index   = (block - SkipStart[Term]) * SKIP;
+                Pos     = SkipPos[block];
+                Doc     = readVarint();
+            }
+            while(Doc < target) next();
+            return Doc;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for(int shift = 0; ; shift += 7){
+                byte b = Postings[Pos++];
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) return value;
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,100 @@
+package serverUtil;
+
+/*
+ * Timer wheel a hash per i timeout delle connessioni
+ *
+ * Appartiene a un reactor e viene usata solo dal suo thread. Gli elementi
+ * sono le sessioni stesse (lista doppiamente concatenata intrusiva), quindi
+ * schedule e cancel costano O(1) e non allocano memoria.
+ *
+ * Ogni slot copre TICK millisecondi; le scadenze oltre un giro della ruota
+ * restano nello slot finché il cursore non vi ripassa dopo la scadenza
+ */
+public class TimerWheel {
+
+    private final Session[] Slots;      //testa della lista di ogni slot
+    private final int       Mask;
+    private final long      Tick;
+    private long            LastTick;   //ultimo tick elaborato
+    private int             Size;
+
+    public TimerWheel(int slots, long tick, long now) {
+        //numero di slot arrotondato alla potenza di due successiva
+        int n = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        this.Slots      = new Session[n];
+        this.Mask       = n - 1;
+        this.Tick       = Math.max(tick, 1);
+        this.LastTick   = now / this.Tick;
+        this.Size       = 0;
+    }
+
+    public long getTick(){
+        return Tick;
+    }
+
+    public boolean isEmpty(){
+        return Size == 0;
+    }
+
+    /*
+     * Inserisce (o sposta) la sessione nello slot della scadenza indicata.
+     * Lo slot è quello del primo tick non precedente alla scadenza, così
+     * quando viene visitato la sessione è già scaduta. Le scadenze già
+     * passate finiscono nel prossimo tick
+     */
+    public void schedule(Session session, long deadline){
+        if(session.TimerSlot >= 0) cancel(session);
+        long tick = Math.max((deadline + Tick - 1) / Tick, LastTick + 1);
+        int slot = (int) (tick & Mask);
+        session.TimerDeadline   = deadline;
+        session.TimerSlot       = slot;
+        session.TimerPrev       = null;
+        session.TimerNext       = Slots[slot];
+        if(Slots[slot] != null) Slots[slot].TimerPrev = session;
+        Slots[slot] = session;
+        Size++;
+    }
+
+    //rimuove la sessione dalla ruota se presente
+    public void cancel(Session session){
+        int slot = session.TimerSlot;
+        if(slot < 0) return;
+        if(session.TimerPrev != null)   session.TimerPrev.TimerNext = session.TimerNext;
+        else                            Slots[slot] = session.TimerNext;
+        if(session.TimerNext != null)   session.TimerNext.TimerPrev = session.TimerPrev;
+        session.TimerPrev   = null;
+        session.TimerNext   = null;
+        session.TimerSlot   = -1;
+        Size--;
+    }
+
+    /*
+     * Avanza il cursore fino a now e rimuove le sessioni scadute.
+     * Restituisce la prima di una lista concatenata tramite TimerNext
+     * (null se nessuna è scaduta); il chiamante può rischedularle
+     */
+    public Session expire(long now){
+        long target = now / Tick;
+        Session expired = null;
+        if(Size == 0){
+            LastTick = Math.max(LastTick, target);
+            return null;
+        }
+        //dopo un giro completo tutti gli slot sono già stati visitati
+        long from = Math.max(LastTick + 1, target - Mask);
+        for(long t = from; t <= target; t++){
+            Session node = Slots[(int) (t & Mask)];
+            while(node != null){
+                Session next = node.TimerNext;
+                if(node.TimerDeadline <= now){
+                    cancel(node);
+                    node.TimerNext = expired;
+                    expired = node;
+                }
+                node = next;
+            }
+        }
+        LastTick = Math.max(LastTick, target);
+        return expired;
+    }
+}